@@ -4,11 +4,13 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  *
  */
 @SpringBootApplication
+@EnableScheduling
 public class ImageHosterApplication {
     public static void main(String[] args) {
         SpringApplication.run(ImageHosterApplication.class, args);
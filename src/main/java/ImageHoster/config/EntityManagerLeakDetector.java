@@ -0,0 +1,87 @@
+package ImageHoster.config;
+
+import org.hibernate.BaseSessionEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ */
+//Hibernate creates an instance of this listener for every EntityManager it opens (see 'hibernate.session.events.auto' in persistence.xml) and calls end() when the EntityManager is closed
+//Hence the instances which have not ended yet are exactly the EntityManagers which are still open
+//EntityManagerLeakFilter uses them to report EntityManagers which are still open on the request thread once the request has completed
+public class EntityManagerLeakDetector extends BaseSessionEventListener {
+
+    private static final Set<EntityManagerLeakDetector> OPEN = ConcurrentHashMap.newKeySet();
+
+    //Recording where every EntityManager is opened is expensive, it is only done when enabled through image-hoster.jpa.leak-detection.stack-traces
+    private static volatile boolean recordStackTraces;
+
+    private final Thread thread;
+
+    private final long openedAt;
+
+    private final Throwable openedBy;
+
+    public EntityManagerLeakDetector() {
+        thread = Thread.currentThread();
+        openedAt = System.currentTimeMillis();
+        openedBy = recordStackTraces ? new Throwable("EntityManager opened on thread " + thread.getName()) : null;
+        OPEN.add(this);
+    }
+
+    @Override
+    public void end() {
+        OPEN.remove(this);
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    //Returns the stack trace of the code which opened the EntityManager, or null if stack traces are not recorded
+    public Throwable getOpenedBy() {
+        return openedBy;
+    }
+
+    /**
+     *
+     * @param enabled
+     */
+    public static void setRecordStackTraces(boolean enabled) {
+        recordStackTraces = enabled;
+    }
+
+    //The method returns the EntityManagers opened on the given thread which have not been closed yet
+
+    /**
+     *
+     * @param thread
+     * @return
+     */
+    public static List<EntityManagerLeakDetector> getOpenEntityManagers(Thread thread) {
+        List<EntityManagerLeakDetector> open = new ArrayList<>();
+        for (EntityManagerLeakDetector detector : OPEN) {
+            if (detector.thread == thread) {
+                open.add(detector);
+            }
+        }
+        return open;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public static List<EntityManagerLeakDetector> getOpenEntityManagers() {
+        return Collections.unmodifiableList(new ArrayList<>(OPEN));
+    }
+}
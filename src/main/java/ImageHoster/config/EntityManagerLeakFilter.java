@@ -0,0 +1,51 @@
+package ImageHoster.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ *
+ */
+//Every EntityManager has to be closed by the time the request is completed, otherwise it keeps its persistence context and possibly a connection of the pool
+//The filter checks this after every request and logs the EntityManagers which are still open on the request thread
+//With image-hoster.jpa.leak-detection.fail-on-leak the request fails instead, which is used by the tests
+@Component
+public class EntityManagerLeakFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityManagerLeakFilter.class);
+
+    @Value("${image-hoster.jpa.leak-detection.fail-on-leak:false}")
+    private boolean failOnLeak;
+
+    @Value("${image-hoster.jpa.leak-detection.stack-traces:false}")
+    public void setRecordStackTraces(boolean recordStackTraces) {
+        EntityManagerLeakDetector.setRecordStackTraces(recordStackTraces);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            List<EntityManagerLeakDetector> leaked = EntityManagerLeakDetector.getOpenEntityManagers(Thread.currentThread());
+            if (!leaked.isEmpty()) {
+                for (EntityManagerLeakDetector entityManager : leaked) {
+                    log.error("EntityManager is still open after {} {}", request.getMethod(), request.getRequestURI(), entityManager.getOpenedBy());
+                }
+                if (failOnLeak) {
+                    throw new IllegalStateException(leaked.size() + " EntityManager(s) still open after " + request.getMethod() + " " + request.getRequestURI());
+                }
+            }
+        }
+    }
+}
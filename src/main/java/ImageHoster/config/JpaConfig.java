@@ -1,44 +1,151 @@
 package ImageHoster.config;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jpa.HibernateMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  *
  */
 @Configuration
+@EnableTransactionManagement
 public class JpaConfig {
+    //The persistence unit is read from persistence.xml, but the connections are taken from the pooled DataSource below
+    //instead of the JDBC settings of the persistence unit, which opened a new physical connection for every EntityManager
+    //With replicas configured, the read-only transactions take their connections from the replicas, see ReplicaRoutingDataSource
+    //The 'spring.jpa.properties' properties override the ones of persistence.xml, e.g. spring.jpa.properties.hibernate.dialect
+    //The regions of the second-level cache are configured in the file given by 'image-hoster.cache.config', Ehcache expects its location as a URI
+
+    @Value("${image-hoster.cache.config:classpath:ehcache.xml}")
+    private Resource cacheConfig;
+
+    @Value("${image-hoster.replicas.urls:}")
+    private String[] replicaUrls;
+
+    @Value("${image-hoster.replicas.max-lag:5000}")
+    private long replicaMaxLag;
+
+    @Value("${image-hoster.replicas.lag-query:}")
+    private String replicaLagQuery;
+
     /**
      *
+     * @param dataSource
+     * @param replicaRoutingDataSource
+     * @param jpaProperties
      * @return
+     * @throws IOException
      */
     @Bean
-    public EntityManagerFactory entityManagerFactory() {
+    public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource, ReplicaRoutingDataSource replicaRoutingDataSource, JpaProperties jpaProperties) throws IOException {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("hibernate.javax.cache.uri", cacheConfig.getURI().toString());
+        properties.putAll(jpaProperties.getProperties());
+
         LocalContainerEntityManagerFactoryBean emfb = new LocalContainerEntityManagerFactoryBean();
         emfb.setPersistenceXmlLocation("classpath:META-INF/persistence.xml");
-        emfb.afterPropertiesSet();
-        return emfb.getObject();
+        emfb.setDataSource(getEntityManagerDataSource(dataSource, replicaRoutingDataSource));
+        emfb.setJpaPropertyMap(properties);
+        return emfb;
     }
 
-    //can data source object be populateed form persistence xml itself, since the configurations are present there too
+    //The connection pool is configured with the 'image-hoster.datasource' properties, e.g. image-hoster.datasource.maximum-pool-size
+    //Every property of HikariConfig can be set that way
+    //The pool hands out connections lazily, the first connection is opened when the EntityManagerFactory starts
+    //The pool statistics (active, idle, pending connections and the time spent waiting for a connection) are published by Spring Boot Actuator under /actuator/metrics/hikaricp.*
 
     /**
      *
      * @return
      */
     @Bean
-    public DataSource dataSource() {
-        DriverManagerDataSource ds = new DriverManagerDataSource();
-        ds.setDriverClassName("org.postgresql.Driver");
-        ds.setUrl("jdbc:postgresql://localhost:5432/imageHoster");
-        ds.setUsername("postgres");
-        ds.setPassword("Kvihar@24");
-        return ds;
+    @Primary
+    @ConfigurationProperties(prefix = "image-hoster.datasource")
+    public HikariDataSource dataSource() {
+        return new HikariDataSource();
+    }
+
+    //Every replica listed in 'image-hoster.replicas.urls' gets a pool with the settings of the pool of the primary, only the JDBC URL and the pool name differ
+    //Without replicas every connection is taken from the primary
+
+    /**
+     *
+     * @param dataSource
+     * @return
+     */
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource dataSource) {
+        List<DataSource> replicas = new ArrayList<>();
+        for (String url : replicaUrls) {
+            if (url.trim().isEmpty()) {
+                continue;
+            }
+            HikariConfig config = new HikariConfig();
+            dataSource.copyStateTo(config);
+            config.setJdbcUrl(url.trim());
+            config.setPoolName(dataSource.getPoolName() + "-replica-" + replicas.size());
+            replicas.add(new HikariDataSource(config));
+        }
+        return new ReplicaRoutingDataSource(dataSource, replicas, replicaMaxLag, replicaLagQuery);
+    }
+
+    //The DataSource of the EntityManagerFactory
+    //With replicas, the connection of a transaction is only taken when its first statement is executed, by then the transaction is known to be read-only or not
+
+    /**
+     *
+     * @param dataSource
+     * @param replicaRoutingDataSource
+     * @return
+     */
+    static DataSource getEntityManagerDataSource(DataSource dataSource, ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return replicaRoutingDataSource.hasReplicas() ? new LazyConnectionDataSourceProxy(replicaRoutingDataSource) : dataSource;
     }
-}
 
+    //The repositories declare their transactions with @Transactional
+    //The transaction manager opens an EntityManager with every transaction and closes it, returning the connection to the pool, when the transaction ends
+
+    /**
+     *
+     * @param entityManagerFactory
+     * @return
+     */
+    @Bean
+    public PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+        return new JpaTransactionManager(entityManagerFactory);
+    }
+
+    //Publishes the Hibernate statistics, e.g. the hits and misses of the second-level and query cache, under /actuator/metrics/hibernate.*
+
+    /**
+     *
+     * @param entityManagerFactory
+     * @return
+     */
+    @Bean
+    public MeterBinder hibernateMetrics(EntityManagerFactory entityManagerFactory) {
+        return new HibernateMetrics(entityManagerFactory, "imageHoster", Collections.emptyList());
+    }
+}
@@ -0,0 +1,55 @@
+package ImageHoster.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+
+/**
+ *
+ */
+//A replica applies the changes of the primary with a delay, so a user who has just uploaded an image or posted a comment might not find it on the next page read from a replica
+//The filter therefore pins every request which may change data (any method but GET and HEAD) to the primary and records the time in the session
+//The following requests of the session are pinned to the primary as well, until the replicas had read-your-writes-window milliseconds to catch up
+@Component
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String LAST_WRITE_ATTRIBUTE = "lastWriteAt";
+
+    @Value("${image-hoster.replicas.read-your-writes-window:10000}")
+    private long readYourWritesWindow;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        boolean write = !"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod());
+        ReplicaRoutingDataSource.setPrimaryOnly(write || wroteRecently(request.getSession(false)));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReplicaRoutingDataSource.setPrimaryOnly(false);
+            //The session may have been created by the request, e.g. on login
+            HttpSession session = request.getSession(false);
+            if (write && session != null) {
+                try {
+                    session.setAttribute(LAST_WRITE_ATTRIBUTE, System.currentTimeMillis());
+                } catch (IllegalStateException e) {
+                    //The session was invalidated by the request, e.g. on logout
+                }
+            }
+        }
+    }
+
+    private boolean wroteRecently(HttpSession session) {
+        if (session == null) {
+            return false;
+        }
+        Long lastWrite = (Long) session.getAttribute(LAST_WRITE_ATTRIBUTE);
+        return lastWrite != null && System.currentTimeMillis() - lastWrite < readYourWritesWindow;
+    }
+}
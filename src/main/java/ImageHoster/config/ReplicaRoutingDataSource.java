@@ -0,0 +1,179 @@
+package ImageHoster.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ */
+//The DataSource sends the connections of read-only transactions to the replicas of the database and all the other connections to the primary
+//The repositories are @Transactional(readOnly = true) unless a method changes data, so the queries of the galleries, the image pages, the tags and the login go to the replicas
+//The replicas take turns, a replica which fails to hand out a connection or lags too far behind the primary is skipped until checkReplicas() finds it usable again
+//Without a usable replica the connection is taken from the primary
+//The read-only flag of the transaction is only known once the transaction has begun, hence the DataSource is used behind a LazyConnectionDataSourceProxy, see JpaConfig
+//A request can be pinned to the primary with setPrimaryOnly(), so that a session reads what it has just written, see ReadYourWritesFilter
+public class ReplicaRoutingDataSource extends AbstractDataSource implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private static final ThreadLocal<Boolean> PRIMARY_ONLY = new ThreadLocal<>();
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    //Milliseconds a replica may lag behind the primary
+    private final long maxLag;
+
+    //Query returning the lag of a replica in milliseconds, null means the replica is up to date
+    private final String lagQuery;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     *
+     * @param primary
+     * @param replicas
+     * @param maxLag
+     * @param lagQuery
+     */
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, long maxLag, String lagQuery) {
+        this.primary = primary;
+        for (DataSource replica : replicas) {
+            this.replicas.add(new Replica(replica));
+        }
+        this.maxLag = maxLag;
+        this.lagQuery = lagQuery;
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    //Connections taken on the current thread come from the primary until the flag is reset, whatever the transaction
+
+    /**
+     *
+     * @param primaryOnly
+     */
+    public static void setPrimaryOnly(boolean primaryOnly) {
+        if (primaryOnly) {
+            PRIMARY_ONLY.set(true);
+        } else {
+            PRIMARY_ONLY.remove();
+        }
+    }
+
+    public static boolean isPrimaryOnly() {
+        return PRIMARY_ONLY.get() != null;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!isPrimaryOnly() && TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            Connection connection = getReplicaConnection();
+            if (connection != null) {
+                return connection;
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new UnsupportedOperationException("The connections are opened with the credentials of the pools");
+    }
+
+    //Tries the usable replicas in turn, starting with the one after the replica used last
+    //Returns null if none of them hands out a connection
+    private Connection getReplicaConnection() {
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (!replica.usable) {
+                continue;
+            }
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                replica.usable = false;
+                log.warn("Replica {} is not available, reading from the primary until it is back", replica.dataSource, e);
+            }
+        }
+        return null;
+    }
+
+    //Periodically checks every replica, a replica is usable again once it hands out a connection and does not lag more than the allowed milliseconds
+    //The lag is measured with the lag query, which is skipped if it is empty
+
+    /**
+     *
+     */
+    @Scheduled(fixedDelayString = "${image-hoster.replicas.check-interval:5000}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean usable;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                usable = getLag(connection) <= maxLag;
+            } catch (SQLException e) {
+                usable = false;
+            }
+            if (usable != replica.usable) {
+                log.info("Replica {} is {}", replica.dataSource, usable ? "usable again" : "lagging behind or not available");
+            }
+            replica.usable = usable;
+        }
+    }
+
+    private long getLag(Connection connection) throws SQLException {
+        if (lagQuery == null || lagQuery.isEmpty()) {
+            return 0;
+        }
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(lagQuery)) {
+            if (!resultSet.next()) {
+                return 0;
+            }
+            long lag = resultSet.getLong(1);
+            return resultSet.wasNull() ? 0 : lag;
+        }
+    }
+
+    //The pools of the replicas are created along with this DataSource and closed with it
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable) {
+                ((AutoCloseable) replica.dataSource).close();
+            }
+        }
+    }
+
+    private static class Replica {
+
+        private final DataSource dataSource;
+
+        private volatile boolean usable = true;
+
+        private Replica(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+}
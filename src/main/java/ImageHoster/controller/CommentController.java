@@ -0,0 +1,68 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.Comment;
+import ImageHoster.model.CommentSummary;
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.User;
+import ImageHoster.service.CommentService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+
+import javax.servlet.http.HttpSession;
+
+/**
+ *
+ */
+@Controller
+public class CommentController {
+
+    @Autowired
+    private CommentService commentService;
+
+    //This controller method is called when the request pattern is of type '/image/{id}/{title}/comments' and also the incoming request is of POST type
+    //The method sets the logged in user as the author of the comment and calls the submitComment() method in the business logic
+    //The comment is written in a batch with the other comments posted at the same time, the response is sent once the batch is written
+    //Looks for a controller method with request mapping of type '/images/{id}', which shows the image along with the comments written so far
+    //If the comment could not be written, the image page shows an error instead
+
+    /**
+     *
+     * @param id
+     * @param title
+     * @param comment
+     * @param httpSession
+     * @param redirectAttributes
+     * @return
+     */
+    @PostMapping("/image/{id}/{title}/comments")
+    public String createComment(@PathVariable("id") Integer id, @PathVariable("title") String title, Comment comment, HttpSession httpSession, RedirectAttributes redirectAttributes) {
+        User user = (User) httpSession.getAttribute("loggeduser");
+        comment.setUser(user);
+        comment.setId(null);
+        if (!commentService.submitComment(id, comment)) {
+            redirectAttributes.addFlashAttribute("commentError", true);
+        }
+        return "redirect:/images/{id}";
+    }
+
+    //This controller method is called when the request pattern is of type '/images/{id}/comments'
+    //The method returns one page of the comments of the image as JSON, 'after' is the 'next' cursor of the previous page
+    //The image page shows the first page and loads the following ones with this method as the user asks for more comments
+
+    /**
+     *
+     * @param id
+     * @param after
+     * @param size
+     * @return
+     */
+    @RequestMapping(value = "/images/{id}/comments", method = RequestMethod.GET, produces = "application/json")
+    @ResponseBody
+    public CursorPage<CommentSummary> getComments(@PathVariable("id") Integer id,
+                                                  @RequestParam(value = "after", required = false) String after,
+                                                  @RequestParam(value = "size", required = false) Integer size) {
+        return commentService.getCommentPage(id, after, size);
+    }
+}
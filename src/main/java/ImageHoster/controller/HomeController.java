@@ -1,13 +1,14 @@
 package ImageHoster.controller;
 
-import ImageHoster.model.Image;
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.ImageSummary;
 import ImageHoster.service.ImageService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
-
-import java.util.List;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 
 /**
  *
@@ -18,15 +19,40 @@ public class HomeController {
     @Autowired
     private ImageService imageService;
 
+    //The home page shows one page of images, newest first
+    //The 'after' and 'before' request parameters are the cursors of the links to the older and newer pages
+
     /**
      *
+     * @param after
+     * @param before
      * @param model
      * @return
      */
     @RequestMapping("/")
-    public String getAllImages(Model model) {
-        List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+    public String getAllImages(@RequestParam(value = "after", required = false) String after,
+                               @RequestParam(value = "before", required = false) String before, Model model) {
+        CursorPage<ImageSummary> page = imageService.getImagePage(after, before, null);
+        model.addAttribute("images", page.getItems());
+        model.addAttribute("page", page);
         return "index";
     }
-}
\ No newline at end of file
+
+    //This controller method returns the same pages as JSON, the cursors of the previous and next pages are part of the response
+    //It is meant for pages which load more images while the user scrolls
+
+    /**
+     *
+     * @param after
+     * @param before
+     * @param size
+     * @return
+     */
+    @RequestMapping(value = "/api/images", produces = "application/json")
+    @ResponseBody
+    public CursorPage<ImageSummary> getImagePage(@RequestParam(value = "after", required = false) String after,
+                                                 @RequestParam(value = "before", required = false) String before,
+                                                 @RequestParam(value = "size", required = false) Integer size) {
+        return imageService.getImagePage(after, before, size);
+    }
+}
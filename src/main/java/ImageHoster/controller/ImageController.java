@@ -1,10 +1,14 @@
 package ImageHoster.controller;
 
-import ImageHoster.model.Comment;
+import ImageHoster.model.CursorPage;
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
 import ImageHoster.model.Tag;
 import ImageHoster.model.User;
+import ImageHoster.service.CommentService;
+import ImageHoster.service.DuplicateImageException;
 import ImageHoster.service.ImageService;
+import ImageHoster.service.InvalidImageException;
 import ImageHoster.service.TagService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -12,8 +16,10 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 /**
@@ -28,17 +34,25 @@ public class ImageController {
     @Autowired
     private TagService tagService;
 
+    @Autowired
+    private CommentService commentService;
+
     /**
      *
+     * @param after
+     * @param before
      * @param model
      * @return
      */
-    //This method displays all the images in the user home page after successful login
+    //This method displays one page of the images in the user home page after successful login
+    //The 'after' and 'before' request parameters are the cursors of the links to the older and newer pages
     @RequestMapping("images")
-    public String getUserImages(Model model) {
+    public String getUserImages(@RequestParam(value = "after", required = false) String after,
+                                @RequestParam(value = "before", required = false) String before, Model model) {
 
-        List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+        CursorPage<ImageSummary> page = imageService.getImagePage(after, before, null);
+        model.addAttribute("images", page.getItems());
+        model.addAttribute("page", page);
         return "images";
     }
 
@@ -47,47 +61,36 @@ public class ImageController {
     //First receive the dynamic parameter in the incoming request URL in a string variable 'title' and also the Model type object
     //Call the getImageByTitle() method in the business logic to fetch all the details of that image
     //Add the image in the Model type object with 'image' as the key
+    //Add the first page of the comments of the image with 'comments' as the key, the page loads the following ones from CommentController
     //Return 'images/image.html' file
 
     //Also now you need to add the tags of an image in the Model type object
     //Here a list of tags is added in the Model type object
     //this list is then sent to 'images/image.html' file and the tags are displayed
+    //An image which does not exist, e.g. because it has been deleted, is answered with status 404
 
     /**
      *
      * @param id
      * @param model
+     * @param response
      * @return
+     * @throws IOException
      */
     @RequestMapping("/images/{id}")
-    public String showImage(@PathVariable("id") Integer id, Model model) {
+    public String showImage(@PathVariable("id") Integer id, Model model, HttpServletResponse response) throws IOException {
 
         Image image = imageService.getImageByTitle(id);
-        // Comment comment = new Comment();
-        // model.addAttribute("comments", comment);
+        if (image == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
         model.addAttribute("image", image);
         model.addAttribute("tags", image.getTags());
+        model.addAttribute("comments", commentService.getCommentPage(id, null, null));
         return "images/image";
     }
 
-    /**
-     *
-     * @param id
-     * @param title
-     * @param comment1
-     * @param httpSession
-     * @return
-     */
-    @PostMapping("/image/{id}/{title}/comments")
-    public String saveImageComments(@PathVariable("id") Integer id, @PathVariable("title") String title, Comment comment1, HttpSession httpSession) {
-
-        User user = (User) httpSession.getAttribute("loggeduser");
-        comment1.setUser(user);
-        comment1.setId(null);
-        imageService.saveCommentOfImage(id, comment1);
-        return "redirect:/images/{id}";
-    }
-
     /**
      *
      * @return
@@ -102,13 +105,15 @@ public class ImageController {
     //This controller method is called when the request pattern is of type 'images/upload' and also the incoming request is of POST type
     //The method receives all the details of the image to be stored in the database, and now the image will be sent to the business logic to be persisted in the database
     //After you get the imageFile, set the user of the image by getting the logged in user from the Http Session
-    //Convert the image to Base64 format and store it as a string in the 'imageFile' attribute
+    //The bytes of the uploaded file are handed over to the business logic as a stream, which writes them to the image storage and keeps only their hash in the 'contentHash' attribute
+    //The file is never read into memory as a whole, the business logic also takes the type of the image from its content and refuses files which are not images or too large
     //Set the date on which the image is posted
     //After storing the image, this method directs to the logged in user homepage displaying all the images
 
     //Get the 'tags' request parameter using @RequestParam annotation which is just a string of all the tags
     //Store all the tags in the database and make a list of all the tags using the findOrCreateTags() method
     //set the tags attribute of the image as a list of all the tags returned by the findOrCreateTags() method
+    //If the picture is nearly the same as the picture of an existing image and near-duplicates are rejected, the upload page is shown again with a link to that image
 
     /**
      *
@@ -116,21 +121,28 @@ public class ImageController {
      * @param tags
      * @param newImage
      * @param session
+     * @param model
      * @return
      * @throws IOException
      */
     @RequestMapping(value = "/images/upload", method = RequestMethod.POST)
-    public String createImage(@RequestParam("file") MultipartFile file, @RequestParam("tags") String tags, Image newImage, HttpSession session) throws IOException {
+    public String createImage(@RequestParam("file") MultipartFile file, @RequestParam("tags") String tags, Image newImage, HttpSession session, Model model) throws IOException {
 
         User user = (User) session.getAttribute("loggeduser");
         newImage.setUser(user);
-        String uploadedImageData = convertUploadedFileToBase64(file);
-        newImage.setImageFile(uploadedImageData);
 
         List<Tag> imageTags = findOrCreateTags(tags);
         newImage.setTags(imageTags);
         newImage.setDate(new Date());
-        imageService.uploadImage(newImage);
+        try (InputStream imageData = file.getInputStream()) {
+            imageService.uploadImage(newImage, imageData);
+        } catch (DuplicateImageException e) {
+            model.addAttribute("duplicateError", e.getDuplicateOf());
+            return "images/upload";
+        } catch (InvalidImageException e) {
+            model.addAttribute("uploadError", e.getMessage());
+            return "images/upload";
+        }
         return "redirect:/images";
     }
 
@@ -154,12 +166,7 @@ public class ImageController {
         User user = (User) httpSession.getAttribute("loggeduser");
         Image image = imageService.getImage(imageId, user.getId());
         if (image == null) {
-            String error = "Only the owner of the image can edit the image";
-            Image image1 = imageService.getImageByTitle(imageId);
-            model.addAttribute("image", image1);
-            model.addAttribute("tags", image1.getTags());
-            model.addAttribute("editError", error);
-            return "images/image";
+            return showEditError(imageId, model);
         }
         String tags = convertTagsToString(image.getTags());
         model.addAttribute("image", image);
@@ -170,7 +177,7 @@ public class ImageController {
 
     //This controller method is called when the request pattern is of type 'images/edit' and also the incoming request is of PUT type
     //The method receives the imageFile, imageId, updated image, along with the Http Session
-    //The method adds the new imageFile to the updated image if user updates the imageFile and adds the previous imageFile to the new updated image if user does not choose to update the imageFile
+    //If user updates the imageFile, the new file is written to the image storage, else only the title, description, tags and date of the image are updated and the image keeps pointing to the previously stored file
     //Set an id of the new updated image
     //Set the user using Http Session
     //Set the date on which the image is posted
@@ -180,6 +187,8 @@ public class ImageController {
     //The method also receives tags parameter which is a string of all the tags separated by a comma using the annotation @RequestParam
     //The method converts the string to a list of all the tags using findOrCreateTags() method and sets the tags attribute of an image as a list of all the tags
     //  This method invoked on submit in edit.html
+    //If the new file is rejected as a near-duplicate of another image, the edit page is shown again with a link to that image
+    //An edit by another user than the owner changes nothing and its file is not read, the image page is shown with the edit error instead
 
     /**
      *
@@ -188,21 +197,18 @@ public class ImageController {
      * @param tags
      * @param updatedImage
      * @param session
+     * @param model
      * @return
      * @throws IOException
      */
     @RequestMapping(value = "/editImage", method = RequestMethod.PUT)
-    public String editImageSubmit(@RequestParam("file") MultipartFile file, @RequestParam("imageId") Integer imageId, @RequestParam("tags") String tags, Image updatedImage, HttpSession session) throws IOException {
+    public String editImageSubmit(@RequestParam("file") MultipartFile file, @RequestParam("imageId") Integer imageId, @RequestParam("tags") String tags, Image updatedImage, HttpSession session, Model model) throws IOException {
         User user = (User) session.getAttribute("loggeduser");
         Image image = imageService.getImage(imageId, user.getId());
-        String updatedImageData = convertUploadedFileToBase64(file);
-        List<Tag> imageTags = findOrCreateTags(tags);
-
-        if (updatedImageData.isEmpty())
-            updatedImage.setImageFile(image.getImageFile());
-        else {
-            updatedImage.setImageFile(updatedImageData);
+        if (image == null) {
+            return showEditError(imageId, model);
         }
+        List<Tag> imageTags = findOrCreateTags(tags);
 
         updatedImage.setId(imageId);
 
@@ -210,11 +216,41 @@ public class ImageController {
         updatedImage.setTags(imageTags);
         updatedImage.setDate(new Date());
 
-        imageService.updateImage(updatedImage);
+        if (file.isEmpty()) {
+            //Only the details of the image are updated, the update checks the owner again in case the image was deleted meanwhile
+            if (imageService.updateImageDetails(updatedImage, user.getId()) == null) {
+                return showEditError(imageId, model);
+            }
+        } else {
+            try (InputStream imageData = file.getInputStream()) {
+                imageService.updateImage(updatedImage, imageData);
+            } catch (DuplicateImageException e) {
+                model.addAttribute("image", image);
+                model.addAttribute("tags", tags);
+                model.addAttribute("duplicateError", e.getDuplicateOf());
+                return "images/edit";
+            } catch (InvalidImageException e) {
+                model.addAttribute("image", image);
+                model.addAttribute("tags", tags);
+                model.addAttribute("uploadError", e.getMessage());
+                return "images/edit";
+            }
+        }
         return "redirect:/images/" + updatedImage.getId();
     }
 
 
+    //The method shows the image page with the error that only the owner of the image can edit it
+    private String showEditError(Integer imageId, Model model) {
+        String error = "Only the owner of the image can edit the image";
+        Image image = imageService.getImageByTitle(imageId);
+        model.addAttribute("image", image);
+        model.addAttribute("tags", image.getTags());
+        model.addAttribute("comments", commentService.getCommentPage(imageId, null, null));
+        model.addAttribute("editError", error);
+        return "images/image";
+    }
+
     //This controller method is called when the request pattern is of type 'deleteImage' and also the incoming request is of DELETE type
     //The method calls the deleteImage() method in the business logic passing the id of the image to be deleted
     //Looks for a controller method with request mapping of type '/images'
@@ -235,28 +271,35 @@ public class ImageController {
             Image image1 = imageService.getImageByTitle(imageId);
             model.addAttribute("image", image1);
             model.addAttribute("tags", image1.getTags());
+            model.addAttribute("comments", commentService.getCommentPage(imageId, null, null));
             model.addAttribute("deleteError", error);
             return "images/image";
         }
         return "redirect:/images";
     }
 
-
-    //This method converts the image to Base64 format
+    //This controller method is called when the owner deletes the images selected in the gallery, the request is of DELETE type
+    //The images are deleted in one transaction, selected images of other users are left as they are
+    //Looks for a controller method with request mapping of type '/images'
 
     /**
      *
-     * @param file
+     * @param imageIds
+     * @param httpSession
      * @return
-     * @throws IOException
      */
-    private String convertUploadedFileToBase64(MultipartFile file) throws IOException {
-        return Base64.getEncoder().encodeToString(file.getBytes());
+    @RequestMapping(value = "/deleteImages", method = RequestMethod.DELETE)
+    public String deleteImagesSubmit(@RequestParam(name = "imageId", required = false) List<Integer> imageIds, HttpSession httpSession) {
+        User user = (User) httpSession.getAttribute("loggeduser");
+        if (imageIds != null) {
+            imageService.deleteImages(imageIds, user.getId());
+        }
+        return "redirect:/images";
     }
 
-    //findOrCreateTags() method has been implemented, which returns the list of tags after converting the ‘tags’ string to a list of all the tags and also stores the tags in the database if they do not exist in the database. Observe the method and complete the code where required for this method.
-    //Try to get the tag from the database using getTagByName() method. If tag is returned, you need not to store that tag in the database, and if null is returned, you need to first store that tag in the database and then the tag is added to a list
-    //After adding all tags to a list, the list is returned
+
+    //findOrCreateTags() method returns the list of tags after converting the 'tags' string to a list of all the tags and also stores the tags in the database if they do not exist in the database
+    //The names are split at the commas and handed over to resolveTags() of the business logic, which fetches and creates all of them at once
 
     /**
      *
@@ -264,20 +307,7 @@ public class ImageController {
      * @return
      */
     private List<Tag> findOrCreateTags(String tagNames) {
-        StringTokenizer st = new StringTokenizer(tagNames, ",");
-        List<Tag> tags = new ArrayList<Tag>();
-
-        while (st.hasMoreTokens()) {
-            String tagName = st.nextToken().trim();
-            Tag tag = tagService.getTagByName(tagName);
-
-            if (tag == null) {
-                Tag newTag = new Tag(tagName);
-                tag = tagService.createTag(newTag);
-            }
-            tags.add(tag);
-        }
-        return tags;
+        return tagService.resolveTags(Arrays.asList(tagNames.split(",")));
     }
 
     /**
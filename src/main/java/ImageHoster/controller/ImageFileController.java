@@ -0,0 +1,165 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageFile;
+import ImageHoster.service.ImageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ *
+ */
+//The controller serves the raw bytes of the images from the image storage
+//The html pages only refer to the images with their URL, so that the browser downloads and caches every image separately
+@Controller
+public class ImageFileController {
+
+    //Request attributes through which Tomcat lets the application hand the sending of a file over to the sendfile() system call
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    //Below this size it is cheaper to write the bytes directly than to hand the file over to the poller thread, same threshold as Tomcat's DefaultServlet
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    @Autowired
+    private ImageService imageService;
+
+    //This controller method is called when the request pattern is of type '/images/{id}/raw'
+    //The method looks up the image with the corresponding id and streams the stored file with the content type of the image
+    //The ETag of the response is the content hash of the file, so a browser sending it back in If-None-Match gets a 304 without any body
+    //The html pages add the content hash as the 'v' request parameter, such a URL always points to the same bytes and the browser may cache it forever
+    //A single byte range requested in the Range header is answered with 206 and only the requested part of the file
+    //With the 'w' request parameter the smaller copy of the image with that width is sent, or the original as long as the copy has not been generated
+    //Returns 404 if there is no such image or its file is missing in the image storage
+
+    /**
+     *
+     * @param id
+     * @param version
+     * @param width
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "/images/{id}/raw", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void getImageFile(@PathVariable("id") Integer id, @RequestParam(value = "v", required = false) String version,
+                             @RequestParam(value = "w", required = false) Integer width,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Image image = imageService.getImageById(id);
+        if (image == null || image.getContentHash() == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        ImageFile file = imageService.getImageFile(image, width);
+        Path imageFile = file.getPath();
+        if (!Files.exists(imageFile)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        //The original is sent in place of a missing derivative only until the derivative is generated, hence it must not be cached forever under that URL
+        String eTag = "\"" + file.getVersion() + "\"";
+        boolean immutable = file.isExact() && image.getContentHash().equals(version);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, immutable ? IMMUTABLE_CACHE_CONTROL : "no-cache");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (new ServletWebRequest(request, response).checkNotModified(eTag)) {
+            return;
+        }
+
+        long length = Files.size(imageFile);
+        long start = 0;
+        long end = length - 1;
+
+        HttpRange range = getRequestedRange(request, eTag);
+        if (range != null) {
+            start = range.getRangeStart(length);
+            end = range.getRangeEnd(length);
+            if (start >= length || start > end) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+
+        long count = end - start + 1;
+        response.setContentType(file.getContentType() != null ? file.getContentType() : "application/octet-stream");
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(count));
+
+        if (RequestMethod.HEAD.name().equals(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        if (count >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, imageFile.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end + 1);
+            return;
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(imageFile, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                long transferred = fileChannel.transferTo(position, end + 1 - position, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    //The method returns the byte range requested by the client, or null if the whole file has to be sent
+    //The Range header is ignored if it cannot be parsed, if it asks for more than one range, or if the If-Range header refers to another version of the file
+
+    /**
+     *
+     * @param request
+     * @param eTag
+     * @return
+     */
+    private HttpRange getRequestedRange(HttpServletRequest request, String eTag) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null) {
+            return null;
+        }
+
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(eTag)) {
+            return null;
+        }
+
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.service.ImageSearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ *
+ */
+@Controller
+public class SearchController {
+
+    @Autowired
+    private ImageSearchService imageSearchService;
+
+    //This controller method is called when the request pattern is of type '/search'
+    //The method shows one page of the images whose title, description or tags contain the words of the 'q' request parameter, best match first
+    //The 'page' request parameter is the number of the page, the links to the neighbouring pages carry the same 'q'
+
+    /**
+     *
+     * @param text
+     * @param page
+     * @param model
+     * @return
+     */
+    @RequestMapping("/search")
+    public String search(@RequestParam(value = "q", required = false) String text,
+                         @RequestParam(value = "page", required = false) Integer page, Model model) {
+        CursorPage<ImageSummary> results = imageSearchService.search(text, page, null);
+        model.addAttribute("q", text);
+        model.addAttribute("images", results.getItems());
+        model.addAttribute("page", results);
+        return "images/search";
+    }
+}
@@ -0,0 +1,72 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.TagSuggestion;
+import ImageHoster.service.TagBrowsingService;
+import ImageHoster.service.TagSuggestionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ */
+@Controller
+public class TagController {
+
+    @Autowired
+    private TagBrowsingService tagBrowsingService;
+
+    @Autowired
+    private TagSuggestionService tagSuggestionService;
+
+    //This controller method is called when the request pattern is of type '/tags/suggest'
+    //The method returns the most used tags starting with the 'prefix' request parameter as JSON, used to complete the tags while the user types them
+
+    /**
+     *
+     * @param prefix
+     * @param limit
+     * @return
+     */
+    @RequestMapping(value = "/tags/suggest", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<TagSuggestion> suggestTags(@RequestParam(value = "prefix", defaultValue = "") String prefix,
+                                           @RequestParam(value = "limit", required = false) Integer limit) {
+        return tagSuggestionService.suggest(prefix, limit);
+    }
+
+    //This controller method is called when the request pattern is of type '/tags/{names}'
+    //The method shows one page of the images having all the comma separated tags, or any of them with the request parameter 'match=any'
+    //The 'after' request parameter is the cursor of the link to the next page
+
+    /**
+     *
+     * @param names
+     * @param match
+     * @param after
+     * @param model
+     * @return
+     */
+    @RequestMapping("/tags/{names}")
+    public String getImagesByTags(@PathVariable("names") String names,
+                                  @RequestParam(value = "match", defaultValue = "all") String match,
+                                  @RequestParam(value = "after", required = false) String after, Model model) {
+        boolean matchAll = !"any".equalsIgnoreCase(match);
+        CursorPage<ImageSummary> page = tagBrowsingService.getImagePage(Arrays.asList(names.split(",")), matchAll, after, null);
+        model.addAttribute("tagNames", names);
+        model.addAttribute("match", matchAll ? "all" : "any");
+        model.addAttribute("images", page.getItems());
+        model.addAttribute("page", page);
+        return "images/tag";
+    }
+}
@@ -0,0 +1,188 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.UploadSession;
+import ImageHoster.model.User;
+import ImageHoster.repository.ChunkRejectedException;
+import ImageHoster.service.ChunkedUploadService;
+import ImageHoster.service.DuplicateImageException;
+import ImageHoster.service.InvalidImageException;
+import ImageHoster.service.TagService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ */
+//The controller receives large images in chunks, an upload interrupted by a lost connection is resumed from the last chunk received
+//1. POST /api/uploads?size=<bytes> starts an upload and returns its id
+//2. PUT /api/uploads/{id}?offset=<bytes> sends the next chunk as the request body, with the hex encoded SHA-256 hash of the chunk in the 'X-Chunk-SHA256' header
+//   After a lost connection, GET /api/uploads/{id} returns the offset from which to continue
+//3. POST /api/uploads/{id}/complete with the 'title', 'description' and 'tags' parameters creates the image
+//All the requests need a logged in user and answer with JSON
+@Controller
+@RequestMapping(value = "/api/uploads", produces = MediaType.APPLICATION_JSON_VALUE)
+public class UploadController {
+
+    static final String CHECKSUM_HEADER = "X-Chunk-SHA256";
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private TagService tagService;
+
+    /**
+     *
+     * @param size
+     * @param session
+     * @return
+     * @throws IOException
+     */
+    @RequestMapping(method = RequestMethod.POST)
+    @ResponseBody
+    public ResponseEntity<?> startUpload(@RequestParam("size") long size, HttpSession session) throws IOException {
+        User user = (User) session.getAttribute("loggeduser");
+        if (user == null) {
+            return error(HttpStatus.UNAUTHORIZED, "Not logged in", null);
+        }
+        try {
+            return ResponseEntity.status(HttpStatus.CREATED).body(chunkedUploadService.start(user.getId(), size));
+        } catch (InvalidImageException e) {
+            return error(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage(), null);
+        }
+    }
+
+    /**
+     *
+     * @param id
+     * @param session
+     * @return
+     * @throws IOException
+     */
+    @RequestMapping(value = "/{id}", method = RequestMethod.GET)
+    @ResponseBody
+    public ResponseEntity<?> getUpload(@PathVariable("id") String id, HttpSession session) throws IOException {
+        User user = (User) session.getAttribute("loggeduser");
+        if (user == null) {
+            return error(HttpStatus.UNAUTHORIZED, "Not logged in", null);
+        }
+        UploadSession upload = chunkedUploadService.getSession(id, user.getId());
+        return upload == null ? error(HttpStatus.NOT_FOUND, "No such upload", null) : ResponseEntity.ok(upload);
+    }
+
+    //The body of the request is passed on as a stream, the chunk is written to the disk while it is received
+    //A refused chunk is answered with 409 and the offset from which to send it again
+
+    /**
+     *
+     * @param id
+     * @param offset
+     * @param checksum
+     * @param request
+     * @param session
+     * @return
+     * @throws IOException
+     */
+    @RequestMapping(value = "/{id}", method = RequestMethod.PUT)
+    @ResponseBody
+    public ResponseEntity<?> putChunk(@PathVariable("id") String id, @RequestParam("offset") long offset,
+                                      @RequestHeader(value = CHECKSUM_HEADER, required = false) String checksum,
+                                      HttpServletRequest request, HttpSession session) throws IOException {
+        User user = (User) session.getAttribute("loggeduser");
+        if (user == null) {
+            return error(HttpStatus.UNAUTHORIZED, "Not logged in", null);
+        }
+        try (InputStream chunk = request.getInputStream()) {
+            UploadSession upload = chunkedUploadService.appendChunk(id, user.getId(), offset, chunk, checksum);
+            return upload == null ? error(HttpStatus.NOT_FOUND, "No such upload", null) : ResponseEntity.ok(upload);
+        } catch (ChunkRejectedException e) {
+            return error(HttpStatus.CONFLICT, e.getMessage(), e.getSession());
+        }
+    }
+
+    //Returns the summary of the created image, or 422 if the file is not an image or rejected as a near-duplicate
+
+    /**
+     *
+     * @param id
+     * @param title
+     * @param description
+     * @param tags
+     * @param session
+     * @return
+     * @throws IOException
+     */
+    @RequestMapping(value = "/{id}/complete", method = RequestMethod.POST)
+    @ResponseBody
+    public ResponseEntity<?> completeUpload(@PathVariable("id") String id, @RequestParam("title") String title,
+                                            @RequestParam(value = "description", required = false) String description,
+                                            @RequestParam(value = "tags", defaultValue = "") String tags,
+                                            HttpSession session) throws IOException {
+        User user = (User) session.getAttribute("loggeduser");
+        if (user == null) {
+            return error(HttpStatus.UNAUTHORIZED, "Not logged in", null);
+        }
+        if (chunkedUploadService.getSession(id, user.getId()) == null) {
+            return error(HttpStatus.NOT_FOUND, "No such upload", null);
+        }
+
+        Image image = new Image();
+        image.setTitle(title);
+        image.setDescription(description);
+        image.setUser(user);
+        image.setTags(tagService.resolveTags(Arrays.asList(tags.split(","))));
+        image.setDate(new Date());
+        try {
+            if (chunkedUploadService.complete(id, user.getId(), image) == null) {
+                return error(HttpStatus.NOT_FOUND, "No such upload", null);
+            }
+        } catch (ChunkRejectedException e) {
+            return error(HttpStatus.CONFLICT, e.getMessage(), e.getSession());
+        } catch (InvalidImageException | DuplicateImageException e) {
+            return error(HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage(), null);
+        }
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(new ImageSummary(image.getId(), image.getTitle(), image.getDate(), user.getUsername(), image.getContentHash()));
+    }
+
+    /**
+     *
+     * @param id
+     * @param session
+     * @return
+     * @throws IOException
+     */
+    @RequestMapping(value = "/{id}", method = RequestMethod.DELETE)
+    @ResponseBody
+    public ResponseEntity<?> cancelUpload(@PathVariable("id") String id, HttpSession session) throws IOException {
+        User user = (User) session.getAttribute("loggeduser");
+        if (user == null) {
+            return error(HttpStatus.UNAUTHORIZED, "Not logged in", null);
+        }
+        return chunkedUploadService.cancel(id, user.getId()) ? ResponseEntity.noContent().build() : error(HttpStatus.NOT_FOUND, "No such upload", null);
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, String message, UploadSession upload) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", message);
+        if (upload != null) {
+            body.put("offset", upload.getOffset());
+        }
+        return ResponseEntity.status(status).body(body);
+    }
+}
@@ -1,6 +1,7 @@
 package ImageHoster.controller;
 
-import ImageHoster.model.Image;
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.ImageSummary;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
 import ImageHoster.service.ImageService;
@@ -12,7 +13,6 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
 import javax.servlet.http.HttpSession;
-import java.util.List;
 
 /**
  *
@@ -104,7 +104,7 @@ public class UserController {
     //This controller method is called when the request pattern is of type 'users/logout' and also the incoming request is of POST type
     //The method receives the Http Session and the Model type object
     //session is invalidated
-    //All the images are fetched from the database and added to the model with 'images' as the key
+    //The first page of the images is fetched from the database and added to the model with 'images' as the key
     //'index.html' file is returned showing the landing page of the application and displaying all the images in the application
 
     /**
@@ -117,8 +117,9 @@ public class UserController {
     public String logout(Model model, HttpSession session) {
         session.invalidate();
 
-        List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+        CursorPage<ImageSummary> page = imageService.getImagePage(null, null, null);
+        model.addAttribute("images", page.getItems());
+        model.addAttribute("page", page);
         return "index";
     }
 }
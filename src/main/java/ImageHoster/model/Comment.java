@@ -7,11 +7,13 @@ import java.time.LocalDate;
  *
  */
 @Entity
-@Table(name = "comment")
+//The index on (image_id, comment_id) serves the pages of comments under an image, which are fetched with "WHERE image_id = :imageId AND comment_id > :after ORDER BY comment_id"
+@Table(name = "comment", indexes = @Index(name = "comment_image_id_comment_id_idx", columnList = "image_id, comment_id"))
 public class Comment {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "comment_id_seq")
+    @SequenceGenerator(name = "comment_id_seq", sequenceName = "comment_id_seq", allocationSize = 50)
     @Column(name = "comment_id")
     private Integer id;
 
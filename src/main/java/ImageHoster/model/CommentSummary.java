@@ -0,0 +1,42 @@
+package ImageHoster.model;
+
+import java.time.LocalDate;
+
+/**
+ *
+ */
+//The class holds the columns of a comment shown under an image, along with the username of its author
+//It is selected directly by the comment queries, which hence neither load the Comment entities nor their authors and images
+public class CommentSummary {
+
+    private final Integer id;
+
+    private final String text;
+
+    private final LocalDate createdDate;
+
+    private final String username;
+
+    public CommentSummary(Integer id, String text, LocalDate createdDate, String username) {
+        this.id = id;
+        this.text = text;
+        this.createdDate = createdDate;
+        this.username = username;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public LocalDate getCreatedDate() {
+        return createdDate;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,35 @@
+package ImageHoster.model;
+
+import java.util.List;
+
+/**
+ *
+ */
+//The class holds one page of a list which is browsed with cursors instead of page numbers
+//'next' and 'previous' are opaque tokens to be sent back to get the following or preceding page, they are null at either end of the list
+public class CursorPage<T> {
+
+    private final List<T> items;
+
+    private final String next;
+
+    private final String previous;
+
+    public CursorPage(List<T> items, String next, String previous) {
+        this.items = items;
+        this.next = next;
+        this.previous = previous;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public String getPrevious() {
+        return previous;
+    }
+}
@@ -1,5 +1,9 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.Date;
@@ -12,12 +16,26 @@ import java.util.List;
 @Entity
 //@Table annotation provides more options to customize the mapping.
 //Here the name of the table to be created in the database is explicitly mentioned as 'images'. Hence the table named 'images' will be created in the database with all the columns mapped to all the attributes in 'Image' class
-@Table(name = "images")
+//The index on (date, id) serves the galleries, which list the images newest first and page through them with "WHERE (date, id) < (:date, :id)"
+@Table(name = "images", indexes = @Index(name = "images_date_desc_id_desc_idx", columnList = "date DESC, id DESC"))
+//Only the metadata of the image is kept in the second-level cache (region 'image' in ehcache.xml), the bytes are in ImageStorage
+//Hibernate evicts the cached image whenever it is updated or deleted through the EntityManager
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "image")
+//The fetch plan of the image pages, which show the image along with its owner and tags
+//Loading the image with this graph fetches all of them in a single query instead of one query per association
+@NamedEntityGraph(name = "Image.detail",
+        attributeNodes = {@NamedAttributeNode(value = "user", subgraph = "user"), @NamedAttributeNode("tags")},
+        subgraphs = @NamedSubgraph(name = "user", attributeNodes = @NamedAttributeNode("profile")))
+//The UPDATE statements of an image only set the columns which have changed, so that editing the title does not write the file columns again
+@DynamicUpdate
 public class Image {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    //The ids are taken from a sequence of this table, every call to the sequence reserves a block of 50 ids which Hibernate hands out without asking the database again
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "images_id_seq")
+    @SequenceGenerator(name = "images_id_seq", sequenceName = "images_id_seq", allocationSize = 50)
     //@Column annotation specifies that the attribute will be mapped to the column in the database.
     //Here the column name is explicitly mentioned as 'id'
     @Column(name = "id")
@@ -26,11 +44,31 @@ public class Image {
     @Column(name = "title")
     private String title;
 
-    // Text is a Postgres specific column type that allows you to save
-    // text based data that will be longer than 256 characters
-    // this is a base64 encoded version of the image
-    @Column(columnDefinition = "TEXT")
-    private String imageFile;
+    //The bytes of the image are not stored in the database anymore, they are written to the disk by ImageStorage
+    //The hex encoded SHA-256 hash of the bytes is the key under which ImageStorage finds the file
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    //Size of the image file in bytes
+    @Column(name = "size")
+    private Long size;
+
+    //MIME type of the image file, sent back as Content-Type when the image is served
+    @Column(name = "content_type", length = 100)
+    private String contentType;
+
+    //Set to true once the smaller copies of the image shown in the galleries have been generated by DerivativeService
+    @Column(name = "derivatives_ready", nullable = false)
+    private Boolean derivativesReady = false;
+
+    //64 bit difference hash (dHash) of the picture, similar pictures have hashes differing in few bits, see DuplicateDetectionService
+    //It is null if the file could not be decoded
+    @Column(name = "perceptual_hash")
+    private Long perceptualHash;
+
+    //Id of an image with a very similar picture which existed when this image was uploaded, null if there was none
+    @Column(name = "duplicate_of")
+    private Integer duplicateOf;
 
 
     @Column(name = "description")
@@ -51,6 +89,7 @@ public class Image {
     //Note that no column will be generated for this attribute in the database instead a new table will be created
     //Since the mapping is Many to Many, a new table will be generated containing the two columns both referencing to the primary key of both the tables ('images', 'tags')
     @ManyToMany(fetch = FetchType.LAZY)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "image-tags")
     private List<Tag> tags = new ArrayList<>();
 
 
@@ -70,17 +109,17 @@ public class Image {
     public Image() {
     }
 
-    public Image(int id, String title, String imageFile, Date date) {
+    public Image(int id, String title, String contentHash, Date date) {
         this.id = id;
         this.title = title;
-        this.imageFile = imageFile;
+        this.contentHash = contentHash;
         this.date = date;
     }
 
-    public Image(int id, String title, String imageFile, String description, Date date) {
+    public Image(int id, String title, String contentHash, String description, Date date) {
         this.id = id;
         this.title = title;
-        this.imageFile = imageFile;
+        this.contentHash = contentHash;
         this.description = description;
         this.date = date;
     }
@@ -102,12 +141,52 @@ public class Image {
         this.title = title;
     }
 
-    public String getImageFile() {
-        return imageFile;
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public Boolean getDerivativesReady() {
+        return derivativesReady;
+    }
+
+    public void setDerivativesReady(Boolean derivativesReady) {
+        this.derivativesReady = derivativesReady;
+    }
+
+    public Long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    public void setPerceptualHash(Long perceptualHash) {
+        this.perceptualHash = perceptualHash;
+    }
+
+    public Integer getDuplicateOf() {
+        return duplicateOf;
     }
 
-    public void setImageFile(String imageFile) {
-        this.imageFile = imageFile;
+    public void setDuplicateOf(Integer duplicateOf) {
+        this.duplicateOf = duplicateOf;
     }
 
     public String getDescription() {
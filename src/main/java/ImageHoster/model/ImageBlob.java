@@ -0,0 +1,64 @@
+package ImageHoster.model;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ *
+ */
+//A file of the image storage, which is shared by all the images whose uploaded bytes were identical
+//'refCount' is the number of images pointing to the file, it is changed in the same transaction as the images, see ImageBlobRepository
+//A file no image points to any more is deleted by ImageBlobCollector once it has been unreferenced for a while
+//The index on (ref_count, released_at) serves the collector, which looks for the files unreferenced since before a given time
+@Entity
+@Table(name = "image_blobs", indexes = @Index(name = "image_blobs_ref_count_released_at_idx", columnList = "ref_count, released_at"))
+public class ImageBlob {
+
+    //The hex encoded SHA-256 hash of the bytes, which is also the name of the file, see ImageStorage
+    @Id
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "size")
+    private Long size;
+
+    @Column(name = "ref_count", nullable = false)
+    private int refCount;
+
+    //Time at which the last image pointing to the file went away, null while images point to it
+    @Column(name = "released_at")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date releasedAt;
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(int refCount) {
+        this.refCount = refCount;
+    }
+
+    public Date getReleasedAt() {
+        return releasedAt;
+    }
+
+    public void setReleasedAt(Date releasedAt) {
+        this.releasedAt = releasedAt;
+    }
+}
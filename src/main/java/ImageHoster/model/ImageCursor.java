@@ -0,0 +1,74 @@
+package ImageHoster.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ *
+ */
+//The class identifies a position in the list of images ordered by date and id, newest first
+//The next page starts right after the position, the previous page ends right before it
+//Pages are fetched with "WHERE (date, id) < (:date, :id)" instead of OFFSET, hence fetching a page costs the same wherever it is in the list
+public class ImageCursor {
+
+    private final Date date;
+
+    private final Integer id;
+
+    public ImageCursor(Date date, Integer id) {
+        this.date = date;
+        this.id = id;
+    }
+
+    //An image without a date has no position in the list, the galleries therefore only list images with a date
+
+    /**
+     *
+     * @param image
+     * @return
+     */
+    public static ImageCursor of(ImageSummary image) {
+        if (image.getDate() == null) {
+            throw new IllegalArgumentException("Image " + image.getId() + " has no date, it cannot be the position of a cursor");
+        }
+        return new ImageCursor(image.getDate(), image.getId());
+    }
+
+    //The method returns the cursor encoded in the token, or null if the token was not produced by encode()
+
+    /**
+     *
+     * @param token
+     * @return
+     */
+    public static ImageCursor decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            int separator = value.indexOf('_');
+            return new ImageCursor(new Date(Long.parseLong(value.substring(0, separator))), Integer.valueOf(value.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String encode() {
+        String value = date.getTime() + "_" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+}
@@ -0,0 +1,44 @@
+package ImageHoster.model;
+
+import java.nio.file.Path;
+
+/**
+ *
+ */
+//The class describes a file of the image storage which is about to be sent to the browser
+//It is either the original file of an image or one of its smaller copies generated by DerivativeService
+public class ImageFile {
+
+    private final Path path;
+
+    private final String contentType;
+
+    //Identifies the bytes of the file, used as the ETag of the response
+    private final String version;
+
+    //False when a smaller copy was requested but the original file is returned instead, because the copy does not exist (yet)
+    private final boolean exact;
+
+    public ImageFile(Path path, String contentType, String version, boolean exact) {
+        this.path = path;
+        this.contentType = contentType;
+        this.version = version;
+        this.exact = exact;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+}
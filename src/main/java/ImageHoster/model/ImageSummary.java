@@ -0,0 +1,51 @@
+package ImageHoster.model;
+
+import java.util.Date;
+
+/**
+ *
+ */
+//The class holds the few attributes of an image shown in the galleries
+//It is filled directly by a JPQL constructor expression, hence listing the images never loads the Image entities with their user, profile, tags and comments
+public class ImageSummary {
+
+    private final Integer id;
+
+    private final String title;
+
+    private final Date date;
+
+    //Username of the owner of the image
+    private final String username;
+
+    //Content hash of the image file, the key under which the image and its smaller copies are found in the image storage
+    private final String contentHash;
+
+    public ImageSummary(Integer id, String title, Date date, String username, String contentHash) {
+        this.id = id;
+        this.title = title;
+        this.date = date;
+        this.username = username;
+        this.contentHash = contentHash;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+}
@@ -0,0 +1,26 @@
+package ImageHoster.model;
+
+/**
+ *
+ */
+//The class describes the raw image bytes written by ImageStorage
+//The hash is the hex encoded SHA-256 of the bytes and is also the key under which the bytes can be found on disk
+public class StoredImage {
+
+    private final String hash;
+
+    private final long size;
+
+    public StoredImage(String hash, long size) {
+        this.hash = hash;
+        this.size = size;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
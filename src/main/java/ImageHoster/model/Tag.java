@@ -1,5 +1,8 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.util.List;
 /**
@@ -9,7 +12,11 @@ import java.util.List;
 @Entity
 //@Table annotation provides more options to customize the mapping.
 //Here the name of the table to be created in the database is explicitly mentioned as 'Tags'. Hence the table named 'Tags' will be created in the database with all the columns mapped to all the attributes in 'Tag' class
-@Table(name = "Tags")
+//The name of every tag is unique, TagRepository relies on it to create tags safely when two uploads add the same new tag at the same time
+@Table(name = "Tags", uniqueConstraints = @UniqueConstraint(name = "tags_name_key", columnNames = "name"))
+//Tags are read on every upload and edit and never change once created, hence they are kept in the second-level cache (region 'tag' in ehcache.xml)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "tag")
 public class Tag {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
@@ -17,10 +24,11 @@ public class Tag {
     //@Column annotation specifies that the attribute will be mapped to the column in the database.
     //Here the column name is explicitly mentioned as 'id'
     @Column(name = "id")
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tags_id_seq")
+    @SequenceGenerator(name = "tags_id_seq", sequenceName = "tags_id_seq", allocationSize = 50)
     private Integer id;
 
-    @Column
+    @Column(nullable = false)
     private String name;
 
     // Write the annotation for many to many between images and tags where they are mapped by tags field in the images table
@@ -0,0 +1,25 @@
+package ImageHoster.model;
+
+/**
+ *
+ */
+//The class holds a tag proposed while the user types the tags of an image, along with the number of images having the tag
+public class TagSuggestion {
+
+    private final String name;
+
+    private final long count;
+
+    public TagSuggestion(String name, long count) {
+        this.name = name;
+        this.count = count;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
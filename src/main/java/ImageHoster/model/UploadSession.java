@@ -0,0 +1,46 @@
+package ImageHoster.model;
+
+/**
+ *
+ */
+//The class describes an upload sent in chunks, see ChunkedUploadService
+//'offset' is the number of bytes received and verified so far, the client sends the next chunk from there, also after the connection was lost
+public class UploadSession {
+
+    private final String id;
+
+    //Id of the user who started the upload, only that user may send chunks and complete it
+    private final Integer userId;
+
+    //Total number of bytes of the file announced when the upload was started
+    private final long size;
+
+    private final long offset;
+
+    public UploadSession(String id, Integer userId, long size, long offset) {
+        this.id = id;
+        this.userId = userId;
+        this.size = size;
+        this.offset = offset;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public boolean isComplete() {
+        return offset == size;
+    }
+}
@@ -1,5 +1,8 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 /**
  *
@@ -10,11 +13,15 @@ import javax.persistence.*;
 //@Table annotation provides more options to customize the mapping.
 //Here the name of the table to be created in the database is explicitly mentioned as 'user_profile'. Hence the table named 'user_profile' will be created in the database with all the columns mapped to all the attributes in 'UserProfile' class
 @Table(name = "user_profile")
+//Loaded along with every user, kept in the second-level cache (region 'user-profile' in ehcache.xml)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user-profile")
 public class UserProfile {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_profile_id_seq")
+    @SequenceGenerator(name = "user_profile_id_seq", sequenceName = "user_profile_id_seq", allocationSize = 50)
     //@Column annotation specifies that the attribute will be mapped to the column in the database.
     //Here the column name is explicitly mentioned as 'id'
     @Column(name = "id")
@@ -0,0 +1,29 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.UploadSession;
+
+import java.io.IOException;
+
+/**
+ *
+ */
+//Thrown when a chunk of an upload is refused, e.g. because it does not start at the current offset or its checksum does not match
+//The upload with its current offset is passed on, so that the client knows from where to send the chunk again
+public class ChunkRejectedException extends IOException {
+
+    private final UploadSession session;
+
+    /**
+     *
+     * @param message
+     * @param session
+     */
+    public ChunkRejectedException(String message, UploadSession session) {
+        super(message);
+        this.session = session;
+    }
+
+    public UploadSession getSession() {
+        return session;
+    }
+}
@@ -0,0 +1,67 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.Comment;
+import ImageHoster.model.CommentSummary;
+import ImageHoster.model.Image;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.List;
+
+//The annotation is a special type of @Component annotation which describes that the class defines a data repository
+
+/**
+ *
+ */
+@Repository
+@Transactional(readOnly = true)
+public class CommentRepository {
+
+    private static final String SUMMARY_SELECT = "SELECT new ImageHoster.model.CommentSummary(c.id, c.text, c.createdDate, u.username) FROM Comment c LEFT JOIN c.user u ";
+
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    //The method executes JPQL query to fetch the summaries of at most 'limit' comments of the image, oldest first
+    //If 'afterId' is given only the comments following the comment with that id are fetched
+    //The query walks the index on (image_id, comment_id) from the cursor onwards, hence its cost depends neither on the number of comments of the image nor on the position in the thread
+
+    /**
+     *
+     * @param imageId
+     * @param afterId
+     * @param limit
+     * @return
+     */
+    public List<CommentSummary> getCommentsAfter(Integer imageId, Integer afterId, int limit) {
+        TypedQuery<CommentSummary> query;
+        if (afterId == null) {
+            query = em.createQuery(SUMMARY_SELECT + "WHERE c.image.id = :imageId ORDER BY c.id", CommentSummary.class);
+        } else {
+            query = em.createQuery(SUMMARY_SELECT + "WHERE c.image.id = :imageId AND c.id > :afterId ORDER BY c.id", CommentSummary.class);
+            query.setParameter("afterId", afterId);
+        }
+        query.setParameter("imageId", imageId);
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    //The method persists the comments in one transaction, the image of every comment only needs to carry the id of the image
+    //The image is referred to by a proxy instead of being loaded, hence no SELECT is executed for it
+    //The inserts are sent to the database in JDBC batches of 'hibernate.jdbc.batch_size' statements when the transaction is committed
+    //The transaction is rolled back as a whole if one of the comments cannot be persisted
+
+    /**
+     *
+     * @param comments
+     */
+    @Transactional
+    public void saveComments(List<Comment> comments) {
+        for (Comment comment : comments) {
+            comment.setImage(em.getReference(Image.class, comment.getImage().getId()));
+            em.persist(comment);
+        }
+    }
+}
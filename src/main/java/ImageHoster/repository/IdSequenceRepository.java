@@ -0,0 +1,66 @@
+package ImageHoster.repository;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.enhanced.DatabaseStructure;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.List;
+
+//The annotation is a special type of @Component annotation which describes that the class defines a data repository
+
+/**
+ *
+ */
+@Repository
+@Transactional(readOnly = true)
+public class IdSequenceRepository {
+
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    //The method makes sure that the id sequence of every entity hands out ids above the largest id already stored in its table
+    //Before every table had its own sequence all ids were taken from 'hibernate_sequence', hence a new sequence starts below the existing ids
+    //A sequence value v reserves the ids v - allocationSize + 1 to v, so a sequence is restarted at the largest id plus the allocation size if its next block could overlap existing ids
+    //Reading the next value of a sequence to compare it skips one block of ids, which is harmless
+    //Returns the names of the sequences which had to be restarted
+
+    /**
+     *
+     * @return
+     */
+    @Transactional
+    public List<String> alignSequences() {
+        SessionFactoryImplementor sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        Dialect dialect = sessionFactory.getJdbcServices().getDialect();
+
+        List<String> restarted = new ArrayList<>();
+        for (EntityPersister persister : sessionFactory.getMetamodel().entityPersisters().values()) {
+            IdentifierGenerator idGenerator = persister.getIdentifierGenerator();
+            if (!(idGenerator instanceof SequenceStyleGenerator) || !(persister instanceof AbstractEntityPersister)) {
+                continue;
+            }
+            DatabaseStructure sequence = ((SequenceStyleGenerator) idGenerator).getDatabaseStructure();
+            AbstractEntityPersister entityPersister = (AbstractEntityPersister) persister;
+
+            long maxId = ((Number) em.createNativeQuery("SELECT COALESCE(MAX(" + entityPersister.getIdentifierColumnNames()[0] + "), 0) FROM "
+                    + entityPersister.getTableName()).getSingleResult()).longValue();
+            long nextValue = ((Number) em.createNativeQuery(dialect.getSequenceNextValString(sequence.getName()))
+                    .getSingleResult()).longValue();
+            if (maxId > 0 && nextValue - sequence.getIncrementSize() < maxId) {
+                em.createNativeQuery("ALTER SEQUENCE " + sequence.getName() + " RESTART WITH " + (maxId + sequence.getIncrementSize()))
+                        .executeUpdate();
+                restarted.add(sequence.getName());
+            }
+        }
+        return restarted;
+    }
+}
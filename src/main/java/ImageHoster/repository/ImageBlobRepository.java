@@ -0,0 +1,146 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.ImageBlob;
+import org.hibernate.query.NativeQuery;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Date;
+import java.util.List;
+
+/**
+ *
+ */
+//The repository keeps the number of images pointing to every file of the image storage
+//The counts are changed with single UPDATE statements, which lock the row of the file until the transaction ends, hence concurrent uploads and deletes of the same bytes never lose a change
+//ImageRepository calls these methods from its own transactions, so that a count only changes if the image itself is stored, changed or deleted
+@Repository
+@Transactional(readOnly = true)
+public class ImageBlobRepository {
+
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    //The method counts one more image pointing to the file, registering the file if it is new
+    //The row is inserted with a count of 0 unless it exists, which is safe when two uploads of the same new bytes run at the same time, and then counted up
+
+    /**
+     *
+     * @param contentHash
+     * @param size
+     */
+    @Transactional
+    public void acquire(String contentHash, Long size) {
+        em.createNativeQuery("INSERT INTO image_blobs (content_hash, size, ref_count) VALUES (:hash, :size, 0) ON CONFLICT DO NOTHING")
+                .setParameter("hash", contentHash)
+                .setParameter("size", size)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(ImageBlob.class)
+                .executeUpdate();
+        em.createNativeQuery("UPDATE image_blobs SET ref_count = ref_count + 1, released_at = NULL, size = COALESCE(size, :size) WHERE content_hash = :hash")
+                .setParameter("size", size)
+                .setParameter("hash", contentHash)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(ImageBlob.class)
+                .executeUpdate();
+    }
+
+    //The method counts one image less pointing to the file and records when the last one went away
+
+    /**
+     *
+     * @param contentHash
+     */
+    @Transactional
+    public void release(String contentHash) {
+        em.createNativeQuery("UPDATE image_blobs SET ref_count = ref_count - 1, released_at = CASE WHEN ref_count = 1 THEN :now ELSE released_at END WHERE content_hash = :hash AND ref_count > 0")
+                .setParameter("now", new Date())
+                .setParameter("hash", contentHash)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(ImageBlob.class)
+                .executeUpdate();
+    }
+
+    //The method registers a file no image points to, e.g. the file of an upload which failed or was rejected, so that the collector deletes it
+    //Nothing changes if the file is already registered, the images pointing to it keep it
+
+    /**
+     *
+     * @param contentHash
+     * @param size
+     */
+    @Transactional
+    public void registerUnreferenced(String contentHash, Long size) {
+        em.createNativeQuery("INSERT INTO image_blobs (content_hash, size, ref_count, released_at) VALUES (:hash, :size, 0, :now) ON CONFLICT DO NOTHING")
+                .setParameter("hash", contentHash)
+                .setParameter("size", size)
+                .setParameter("now", new Date())
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(ImageBlob.class)
+                .executeUpdate();
+    }
+
+    //The method registers the files of the images stored before the counts were kept, counting the images pointing to every file
+    //Returns the number of files registered
+
+    /**
+     *
+     * @return
+     */
+    @Transactional
+    public int registerExistingBlobs() {
+        return em.createNativeQuery("INSERT INTO image_blobs (content_hash, size, ref_count) " +
+                "SELECT i.content_hash, MAX(i.size), COUNT(*) FROM images i " +
+                "WHERE i.content_hash IS NOT NULL AND NOT EXISTS (SELECT 1 FROM image_blobs b WHERE b.content_hash = i.content_hash) " +
+                "GROUP BY i.content_hash ON CONFLICT DO NOTHING")
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(ImageBlob.class)
+                .executeUpdate();
+    }
+
+    //The method returns at most 'limit' files which no image has pointed to since before 'releasedBefore', in the order of their hashes
+    //Only the hashes after 'afterHash' are returned, so that the collector can walk through all of them in batches
+
+    /**
+     *
+     * @param releasedBefore
+     * @param afterHash
+     * @param limit
+     * @return
+     */
+    public List<ImageBlob> getUnreferencedBlobs(Date releasedBefore, String afterHash, int limit) {
+        return em.createQuery("SELECT b FROM ImageBlob b WHERE b.refCount = 0 AND b.releasedAt < :releasedBefore AND b.contentHash > :afterHash ORDER BY b.contentHash", ImageBlob.class)
+                .setParameter("releasedBefore", releasedBefore)
+                .setParameter("afterHash", afterHash)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    //The method removes the file from the counts if still no image points to it
+    //Returns false if an image has started pointing to it meanwhile, in which case the file has to be kept
+
+    /**
+     *
+     * @param contentHash
+     * @return
+     */
+    @Transactional
+    public boolean removeIfUnreferenced(String contentHash) {
+        return em.createNativeQuery("DELETE FROM image_blobs WHERE content_hash = :hash AND ref_count = 0")
+                .setParameter("hash", contentHash)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(ImageBlob.class)
+                .executeUpdate() > 0;
+    }
+
+    /**
+     *
+     * @param contentHash
+     * @return
+     */
+    public ImageBlob getBlob(String contentHash) {
+        return em.find(ImageBlob.class, contentHash);
+    }
+}
@@ -1,11 +1,21 @@
 package ImageHoster.repository;
 
-import ImageHoster.model.Comment;
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageCursor;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.StoredImage;
+import ImageHoster.model.Tag;
+import org.hibernate.query.NativeQuery;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 //The annotation is a special type of @Component annotation which describes that the class defines a data repository
 
@@ -13,58 +23,85 @@ import java.util.List;
  *
  */
 @Repository
+@Transactional(readOnly = true)
 public class ImageRepository {
 
-    //Get an instance of EntityManagerFactory from persistence unit with name as 'imageHoster'
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    private static final String SUMMARY_SELECT = "SELECT new ImageHoster.model.ImageSummary(i.id, i.title, i.date, u.username, i.contentHash) FROM Image i LEFT JOIN i.user u ";
+
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //Every call is delegated to the EntityManager of the current transaction, which is opened when the transaction starts and closed when it ends
+    //The methods of this class run in read-only transactions unless they are annotated with @Transactional themselves
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
 
 
     //The method receives the Image object to be persisted in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
     //The transaction is committed if it is successful
     //The transaction is rolled back in case of unsuccessful transaction
+    //The stored file of the image counts one more image pointing to it, in the same transaction
 
     /**
      *
      * @param newImage
      * @return
      */
+    @Transactional
     public Image uploadImage(Image newImage) {
-
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.persist(newImage);
-            em.flush();
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
+        em.persist(newImage);
+        if (newImage.getContentHash() != null) {
+            imageBlobRepository.acquire(newImage.getContentHash(), newImage.getSize());
         }
         return newImage;
     }
 
-    //The method creates an instance of EntityManager
-    //Executes JPQL query to fetch all the images from the database
-    //Returns the list of all the images fetched from the database
+    //The method executes JPQL query to fetch the summaries of at most 'limit' images which come after the cursor in the list of images ordered newest first
+    //If the cursor is null the summaries of the newest images are fetched
+    //Images without a date are left out, they have no place in the order and a cursor could not point at them, see ImageCursor
+    //Only the columns shown in the galleries are selected, the Image entities are not loaded
+    //The query walks the index on (date, id) from the cursor onwards, hence its cost does not depend on how far the cursor is in the list
+    //The condition 'i.date <= :date' is implied by the other one, it is stated so that the database starts the index range at the cursor instead of filtering every row
 
     /**
      *
+     * @param cursor
+     * @param limit
      * @return
      */
-    public List<Image> getAllImages() {
-        EntityManager em = emf.createEntityManager();
-        TypedQuery<Image> query = em.createQuery("SELECT i from Image i", Image.class);
-        List<Image> resultList = query.getResultList();
+    public List<ImageSummary> getImagesAfter(ImageCursor cursor, int limit) {
+        TypedQuery<ImageSummary> query;
+        if (cursor == null) {
+            query = em.createQuery(SUMMARY_SELECT + "WHERE i.date IS NOT NULL ORDER BY i.date DESC, i.id DESC", ImageSummary.class);
+        } else {
+            query = em.createQuery(SUMMARY_SELECT + "WHERE i.date <= :date AND (i.date < :date OR i.id < :id) ORDER BY i.date DESC, i.id DESC", ImageSummary.class);
+            query.setParameter("date", cursor.getDate());
+            query.setParameter("id", cursor.getId());
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    //The method executes JPQL query to fetch the summaries of at most 'limit' images which come right before the cursor in the list of images ordered newest first
+    //The summaries are returned in the reverse order, i.e. oldest first starting next to the cursor
 
-        return resultList;
+    /**
+     *
+     * @param cursor
+     * @param limit
+     * @return
+     */
+    public List<ImageSummary> getImagesBefore(ImageCursor cursor, int limit) {
+        TypedQuery<ImageSummary> query = em.createQuery(SUMMARY_SELECT + "WHERE i.date >= :date AND (i.date > :date OR i.id > :id) ORDER BY i.date ASC, i.id ASC", ImageSummary.class);
+        query.setParameter("date", cursor.getDate());
+        query.setParameter("id", cursor.getId());
+        return query.setMaxResults(limit).getResultList();
     }
 
-    //The method creates an instance of EntityManager
-    //Executes JPQL query to fetch the image from the database with corresponding title
+    //The method fetches the image from the database with corresponding id, along with its owner and its tags
+    //The image is shown after the transaction has ended, hence everything the page displays is loaded here
+    //The image, its owner and its tags are loaded with the 'Image.detail' entity graph in one query, whatever the number of tags
+    //The comments are not loaded, the page fetches them one page at a time from CommentRepository
     //Returns the image in case the image is found in the database
     //Returns null if no image is found in the database
 
@@ -74,24 +111,26 @@ public class ImageRepository {
      * @return
      */
     public Image getImageByTitle(Integer id) {
-        EntityManager em = emf.createEntityManager();
-        try {
-            TypedQuery<Image> typedQuery = em.createQuery("SELECT i from Image i where i.id=:id ", Image.class);
-            TypedQuery<Comment> typedQuery1 = em.createQuery("SELECT c from Comment  c where c.image.id=:id", Comment.class);
-            typedQuery.setParameter("id", id);
-            typedQuery1.setParameter("id", id);
-            List<Comment> commentsOnImage = typedQuery1.getResultList();
-            Image image = typedQuery.getSingleResult();
-            image.setComments(commentsOnImage);
-            return image;
-        } catch (NoResultException nre) {
-            return null;  //return null object basically
-        }
+        TypedQuery<Image> typedQuery = em.createQuery("SELECT i from Image i where i.id=:id", Image.class);
+        typedQuery.setParameter("id", id);
+        return getImageWithDetails(typedQuery);
+    }
+
+    //The method fetches the image with the corresponding id using its primary key, tags and comments of the image are not loaded
+    //Returns null if no image is found in the database
+
+    /**
+     *
+     * @param id
+     * @return
+     */
+    public Image getImageById(Integer id) {
+        return em.find(Image.class, id);
     }
 
-    //The method creates an instance of EntityManager
-    //Executes JPQL query to fetch the image from the database with corresponding id
+    //The method executes JPQL query to fetch the image from the database with corresponding id, along with its owner and tags
     //Returns the image fetched from the database
+    //Returns null if the user does not own an image with that id
 
     /**
      *
@@ -100,51 +139,87 @@ public class ImageRepository {
      * @return
      */
     public Image getImage(Integer imageId, Integer userId) {
-        try {
-            EntityManager em = emf.createEntityManager();
-            TypedQuery<Image> typedQuery = em.createQuery("SELECT i from Image i where i.id =:imageId and i.user.id=:userId", Image.class);
-            typedQuery.setParameter("imageId", imageId);
-            typedQuery.setParameter("userId", userId);
+        TypedQuery<Image> typedQuery = em.createQuery("SELECT i from Image i where i.id =:imageId and i.user.id=:userId", Image.class);
+        typedQuery.setParameter("imageId", imageId);
+        typedQuery.setParameter("userId", userId);
+        return getImageWithDetails(typedQuery);
+    }
 
-            Image image = typedQuery.getSingleResult();
-            return image;
-        } catch (NoResultException nre) {
-            return null;  //return null object basically
-        }
+    //The method runs the given query, which selects a single image, with the 'Image.detail' entity graph
+    //The row of the image repeats once per tag, all the results are the same Image instance
+    //Returns null if the query finds no image
+
+    /**
+     *
+     * @param typedQuery
+     * @return
+     */
+    private Image getImageWithDetails(TypedQuery<Image> typedQuery) {
+        typedQuery.setHint("javax.persistence.loadgraph", em.getEntityGraph("Image.detail"));
+        List<Image> images = typedQuery.getResultList();
+        return images.isEmpty() ? null : images.get(0);
     }
 
     //The method receives the Image object to be updated in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
     //The transaction is committed if it is successful
     //The transaction is rolled back in case of unsuccessful transaction
+    //If the image points to a new file, the new file counts one more image and the previous file one less
+    //The row of the image is locked while reading the previous file, so that two edits of the image at the same time do not both release it
 
     /**
      *
      * @param updatedImage
      */
+    @Transactional
     public void updateImage(Image updatedImage) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
+        Image image = em.find(Image.class, updatedImage.getId(), LockModeType.PESSIMISTIC_WRITE);
+        String previousHash = image == null ? null : image.getContentHash();
+        em.merge(updatedImage);
+        String hash = updatedImage.getContentHash();
+        if (hash != null && !hash.equals(previousHash)) {
+            imageBlobRepository.acquire(hash, updatedImage.getSize());
+        }
+        if (previousHash != null && !previousHash.equals(hash)) {
+            imageBlobRepository.release(previousHash);
+        }
+    }
 
-        try {
-            transaction.begin();
-            em.merge(updatedImage);
-            em.flush();
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
+    //The method updates the title, description, date and tags of an image without touching its file
+    //The image is loaded into the persistence context and only the changed attributes are set, Hibernate then writes only the changed columns (see @DynamicUpdate on Image)
+    //The join table of the tags is only rewritten if the tags have changed
+    //Returns the updated image with its tags, or null if the user does not own an image with that id
+
+    /**
+     *
+     * @param updatedImage
+     * @param userId
+     * @return
+     */
+    @Transactional
+    public Image updateImageDetails(Image updatedImage, Integer userId) {
+        Image image = em.find(Image.class, updatedImage.getId());
+        if (image == null || image.getUser() == null || !image.getUser().getId().equals(userId)) {
+            return null;
+        }
+        image.setTitle(updatedImage.getTitle());
+        image.setDescription(updatedImage.getDescription());
+        image.setDate(updatedImage.getDate());
+        if (!getTagIds(image.getTags()).equals(getTagIds(updatedImage.getTags()))) {
+            image.setTags(new ArrayList<>(updatedImage.getTags()));
         }
+        return image;
+    }
+
+    private static List<Integer> getTagIds(List<Tag> tags) {
+        List<Integer> ids = new ArrayList<>();
+        for (Tag tag : tags) {
+            ids.add(tag.getId());
+        }
+        return ids;
     }
 
     //The method receives the Image id of the image to be deleted in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
-    //Get the image with corresponding image id from the database
-    //This changes the state of the image model from detached state to persistent state, which is very essential to use the remove() method
-    //If you use remove() method on the object which is not in persistent state, an exception is thrown
-    //The transaction is committed if it is successful
-    //The transaction is rolled back in case of unsuccessful transaction
+    //Returns null if the user does not own an image with that id, see deleteImages()
 
     /**
      *
@@ -152,49 +227,281 @@ public class ImageRepository {
      * @param userId
      * @return
      */
+    @Transactional
     public Image deleteImage(Integer imageId, Integer userId) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
+        List<Image> images = deleteImages(Collections.singletonList(imageId), userId);
+        return images.isEmpty() ? null : images.get(0);
+    }
 
-        try {
-            transaction.begin();
-            TypedQuery<Image> query = em.createQuery("select i from Image i where i.id=:imageId and i.user.id=:userId", Image.class);
-            query.setParameter("userId", userId);
-            query.setParameter("imageId", imageId);
-            Image image = (Image) query.getSingleResult();
-            em.remove(image);
-            em.flush();
-            transaction.commit();
-            return image;
-        } catch (Exception e) {
-            transaction.rollback();
-            return null;
+    //The method deletes the images with the given ids which the user owns, the other ids are ignored
+    //The images are deleted with bulk statements instead of loading them and their comments into the persistence context, so the time taken does not depend on the number of comments
+    //The rows of the images are locked first, so a comment written in the background meanwhile waits and then fails instead of making the delete fail
+    //Then the comments, the links to the tags and the images are deleted, Hibernate evicts the cached images along with the bulk statements
+    //Images flagged as near-duplicates of a deleted image no longer point to it, 'duplicateOf' is not a foreign key and would be left dangling
+    //The stored file of each image counts one image less, once no image points to it ImageBlobCollector deletes the file and its smaller copies in the background
+    //Returns the deleted images with their id, content hash and perceptual hash, which is all that is left to remove from the indexes
+
+    /**
+     *
+     * @param imageIds
+     * @param userId
+     * @return
+     */
+    @Transactional
+    public List<Image> deleteImages(List<Integer> imageIds, Integer userId) {
+        if (imageIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<?> rows = em.createNativeQuery("SELECT id, content_hash, perceptual_hash FROM images WHERE id IN (:imageIds) AND user_id = :userId FOR UPDATE")
+                .setParameter("imageIds", imageIds)
+                .setParameter("userId", userId)
+                .getResultList();
+        List<Image> images = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (Object result : rows) {
+            Object[] row = (Object[]) result;
+            Image image = new Image();
+            image.setId(((Number) row[0]).intValue());
+            image.setContentHash((String) row[1]);
+            image.setPerceptualHash(row[2] == null ? null : ((Number) row[2]).longValue());
+            images.add(image);
+            ids.add(image.getId());
+        }
+        if (ids.isEmpty()) {
+            return images;
         }
 
+        em.createQuery("DELETE FROM Comment c WHERE c.image.id IN :ids").setParameter("ids", ids).executeUpdate();
+        em.createQuery("UPDATE Image i SET i.duplicateOf = NULL WHERE i.duplicateOf IN :ids").setParameter("ids", ids).executeUpdate();
+        //Hibernate deletes the rows of the join table between the images and the tags before the images
+        em.createQuery("DELETE FROM Image i WHERE i.id IN :ids").setParameter("ids", ids).executeUpdate();
+        for (Image image : images) {
+            if (image.getContentHash() != null) {
+                imageBlobRepository.release(image.getContentHash());
+            }
+        }
+        return images;
     }
 
+    //The method marks all the images stored with the given content hash as having their smaller copies generated
+    //The images are updated one by one instead of with a bulk update, which would evict every image from the second-level cache
+
     /**
      *
-     * @param id
-     * @param comment
+     * @param contentHash
      */
-    public void saveCommentOfImage(Integer id, Comment comment) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
+    @Transactional
+    public void markDerivativesReady(String contentHash) {
+        TypedQuery<Image> query = em.createQuery("SELECT i FROM Image i WHERE i.contentHash = :contentHash AND i.derivativesReady = false", Image.class);
+        query.setParameter("contentHash", contentHash);
+        for (Image image : query.getResultList()) {
+            image.setDerivativesReady(true);
+        }
+    }
 
+    //The method returns at most 'limit' content hashes of images whose smaller copies have not been generated yet
+
+    /**
+     *
+     * @param limit
+     * @return
+     */
+    public List<String> getContentHashesWithoutDerivatives(int limit) {
+        TypedQuery<String> query = em.createQuery("SELECT DISTINCT i.contentHash FROM Image i WHERE i.derivativesReady = false AND i.contentHash IS NOT NULL", String.class);
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long countImages() {
+        return em.createQuery("SELECT COUNT(i) FROM Image i", Long.class).getSingleResult();
+    }
+
+    //The method returns the next at most 'limit' images with an id above 'afterId', in the order of their ids, along with their owners and tags
+    //The ids are selected first and the images with their tags fetched for those ids, since a fetch join cannot be limited in the database
+    //Used to walk through all the images in batches, e.g. to rebuild the search index
+
+    /**
+     *
+     * @param afterId
+     * @param limit
+     * @return
+     */
+    public List<Image> getImagesWithTagsAfter(Integer afterId, int limit) {
+        List<Integer> ids = em.createQuery("SELECT i.id FROM Image i WHERE i.id > :afterId ORDER BY i.id", Integer.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return em.createQuery("SELECT DISTINCT i FROM Image i LEFT JOIN FETCH i.user LEFT JOIN FETCH i.tags WHERE i.id IN :ids ORDER BY i.id", Image.class)
+                .setParameter("ids", ids)
+                .getResultList();
+    }
+
+    //The method returns the summaries of the images with the given ids, in the order of the ids
+    //Ids of images which do not exist any more are skipped
+
+    /**
+     *
+     * @param ids
+     * @return
+     */
+    public List<ImageSummary> getImageSummaries(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ImageSummary> images = em.createQuery(SUMMARY_SELECT + "WHERE i.id IN :ids", ImageSummary.class)
+                .setParameter("ids", ids)
+                .getResultList();
+        Map<Integer, ImageSummary> byId = new HashMap<>();
+        for (ImageSummary image : images) {
+            byId.put(image.getId(), image);
+        }
+        List<ImageSummary> ordered = new ArrayList<>(images.size());
+        for (Integer id : ids) {
+            if (byId.containsKey(id)) {
+                ordered.add(byId.get(id));
+            }
+        }
+        return ordered;
+    }
+
+    //The method returns at most 'limit' rows of the join table between images and tags as [image id, tag id, tag name], ordered by image id and tag id
+    //The rows following the row (afterImageId, afterTagId) are returned, so that all the rows can be read in batches without reading one twice
+    //Used to build the index of the images of every tag
+
+    /**
+     *
+     * @param afterImageId
+     * @param afterTagId
+     * @param limit
+     * @return
+     */
+    public List<Object[]> getImageTagsAfter(Integer afterImageId, Integer afterTagId, int limit) {
+        return em.createQuery("SELECT i.id, t.id, t.name FROM Image i JOIN i.tags t WHERE i.id >= :imageId AND (i.id > :imageId OR t.id > :tagId) ORDER BY i.id, t.id", Object[].class)
+                .setParameter("imageId", afterImageId)
+                .setParameter("tagId", afterTagId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    //The method returns at most 'limit' perceptual hashes of the images with an id above 'afterId' as [image id, hash], in the order of the ids
+    //Images without a hash are skipped. Used to build the index of the perceptual hashes in batches
+
+    /**
+     *
+     * @param afterId
+     * @param limit
+     * @return
+     */
+    public List<Object[]> getPerceptualHashesAfter(Integer afterId, int limit) {
+        return em.createQuery("SELECT i.id, i.perceptualHash FROM Image i WHERE i.id > :afterId AND i.perceptualHash IS NOT NULL ORDER BY i.id", Object[].class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    //The method returns at most 'limit' images with an id above 'afterId' which have a stored file but no perceptual hash, as [image id, content hash]
+    //These are the images uploaded before the hashes were computed, and the images whose file could not be decoded
+
+    /**
+     *
+     * @param afterId
+     * @param limit
+     * @return
+     */
+    public List<Object[]> getImagesWithoutPerceptualHashAfter(Integer afterId, int limit) {
+        return em.createQuery("SELECT i.id, i.contentHash FROM Image i WHERE i.id > :afterId AND i.perceptualHash IS NULL AND i.contentHash IS NOT NULL ORDER BY i.id", Object[].class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    //The method stores the perceptual hashes computed for the images with the given ids
+    //Like markDerivativesReady() the images are loaded and changed instead of using a bulk update, to keep them in the second-level cache
+
+    /**
+     *
+     * @param hashes
+     */
+    @Transactional
+    public void setPerceptualHashes(Map<Integer, Long> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        List<Image> images = em.createQuery("SELECT i FROM Image i WHERE i.id IN :ids", Image.class)
+                .setParameter("ids", hashes.keySet())
+                .getResultList();
+        for (Image image : images) {
+            image.setPerceptualHash(hashes.get(image.getId()));
+        }
+    }
+
+    //Images uploaded before the image storage was introduced still keep their Base64 encoded bytes in the legacy 'imagefile' column
+    //The column is no longer mapped in the Image entity, hence the methods below use native queries
+    //The method returns the ids of at most 'batchSize' images which have not been moved to the image storage yet
+
+    /**
+     *
+     * @param batchSize
+     * @return
+     */
+    public List<Integer> getLegacyImageIds(int batchSize) {
+        List<?> resultList = em.createNativeQuery("SELECT id FROM images WHERE imagefile IS NOT NULL AND content_hash IS NULL ORDER BY id")
+                .setMaxResults(batchSize)
+                .getResultList();
+
+        List<Integer> ids = new ArrayList<>();
+        for (Object id : resultList) {
+            ids.add(((Number) id).intValue());
+        }
+        return ids;
+    }
+
+    /**
+     *
+     * @param id
+     * @return
+     */
+    public String getLegacyImageFile(Integer id) {
         try {
-            transaction.begin();
-            TypedQuery<Image> query = em.createQuery("select i from Image i where i.id=:id", Image.class);
-            query.setParameter("id", id);
-            Image image = query.getSingleResult();
-            comment.setImage(image);
-            em.persist(comment);
-            em.flush();
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
+            return (String) em.createNativeQuery("SELECT imagefile FROM images WHERE id = :id")
+                    .setParameter("id", id)
+                    .getSingleResult();
+        } catch (NoResultException nre) {
+            return null;
         }
+    }
+
+    //The method points the image to the file written in the image storage and clears the legacy Base64 column
+    //Hibernate does not know which tables a native update touches and would clear the whole second-level cache, hence the query is declared to change the images only
+    //Returns false if the image no longer exists
 
+    /**
+     *
+     * @param id
+     * @param storedImage
+     * @param contentType
+     * @return
+     */
+    @Transactional
+    public boolean completeLegacyImageMigration(Integer id, StoredImage storedImage, String contentType) {
+        int updated = em.createNativeQuery("UPDATE images SET content_hash = :hash, size = :size, content_type = :contentType, imagefile = NULL WHERE id = :id")
+                .setParameter("hash", storedImage.getHash())
+                .setParameter("size", storedImage.getSize())
+                .setParameter("contentType", contentType)
+                .setParameter("id", id)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(Image.class)
+                .executeUpdate();
+        if (updated > 0) {
+            imageBlobRepository.acquire(storedImage.getHash(), storedImage.getSize());
+        }
+        return updated > 0;
     }
 
 }
@@ -0,0 +1,273 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.Tag;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ */
+//The class keeps a Lucene full-text index of the titles, descriptions and tags of the images in a directory on the local disk
+//The index is an inverted index, every word points to the images containing it, hence a search only reads the lists of the words searched for
+//Besides the searchable text every entry stores what the search results show, so that a search never goes to the database
+//Changes are visible to searches right away but only written to disk by commit(), the index can always be rebuilt from the database
+@Repository
+public class ImageSearchIndex {
+
+    private static final String ID = "id";
+    private static final String TITLE = "title";
+    private static final String DESCRIPTION = "description";
+    private static final String TAGS = "tags";
+    private static final String USERNAME = "username";
+    private static final String DATE = "date";
+    private static final String CONTENT_HASH = "contentHash";
+
+    //A word found in the title counts more for the ranking than one found in the tags, which counts more than one found in the description
+    private static final String[] FIELDS = {TITLE, TAGS, DESCRIPTION};
+    private static final float[] BOOSTS = {3f, 2f, 1f};
+
+    //Words of at least this length also match the words starting with them, shorter prefixes would match too many words
+    private static final int MIN_PREFIX_LENGTH = 2;
+
+    //Further words of a search are ignored
+    private static final int MAX_TERMS = 10;
+
+    @Value("${image-hoster.search.index-dir:search-index}")
+    private String indexDir;
+
+    private Analyzer analyzer;
+
+    private Directory directory;
+
+    private IndexWriter writer;
+
+    private SearcherManager searcherManager;
+
+    /**
+     *
+     * @throws IOException
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        Path path = Paths.get(indexDir).toAbsolutePath();
+        Files.createDirectories(path);
+        analyzer = new StandardAnalyzer();
+        directory = FSDirectory.open(path);
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        searcherManager = new SearcherManager(writer, null);
+    }
+
+    //Closing the writer commits the changes which are not on disk yet
+
+    /**
+     *
+     * @throws IOException
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+
+    //The method adds the image to the index, or replaces its entry if the image is already indexed, and makes the change visible to searches
+
+    /**
+     *
+     * @param image
+     * @throws IOException
+     */
+    public void index(Image image) throws IOException {
+        add(image);
+        searcherManager.maybeRefresh();
+    }
+
+    //The method adds the images to the index like index() does, but leaves it to the caller to make the changes visible with refresh()
+
+    /**
+     *
+     * @param images
+     * @throws IOException
+     */
+    public void add(List<Image> images) throws IOException {
+        for (Image image : images) {
+            add(image);
+        }
+    }
+
+    /**
+     *
+     * @param imageId
+     * @throws IOException
+     */
+    public void remove(Integer imageId) throws IOException {
+        writer.deleteDocuments(new Term(ID, imageId.toString()));
+        searcherManager.maybeRefresh();
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    public void clear() throws IOException {
+        writer.deleteAll();
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    public void refresh() throws IOException {
+        searcherManager.maybeRefresh();
+    }
+
+    //The method writes the changes to disk, which is expensive and hence done periodically instead of after every change
+
+    /**
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        if (writer.hasUncommittedChanges()) {
+            writer.commit();
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getImageCount() {
+        return writer.getDocStats().numDocs;
+    }
+
+    //The method returns at most 'limit' images matching the text, skipping the first 'offset' of them, best match first
+    //Every word of the text has to be found in the title, the tags or the description of an image, either exactly or as the beginning of a longer word
+    //An exact match ranks higher than a match of the beginning of a word only
+
+    /**
+     *
+     * @param text
+     * @param offset
+     * @param limit
+     * @return
+     * @throws IOException
+     */
+    public List<ImageSummary> search(String text, int offset, int limit) throws IOException {
+        Query query = buildQuery(text);
+        if (query == null) {
+            return Collections.emptyList();
+        }
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            ScoreDoc[] hits = searcher.search(query, offset + limit).scoreDocs;
+            List<ImageSummary> images = new ArrayList<>();
+            for (int i = offset; i < hits.length; i++) {
+                images.add(toSummary(searcher.doc(hits[i].doc)));
+            }
+            return images;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private void add(Image image) throws IOException {
+        Document document = new Document();
+        document.add(new StringField(ID, image.getId().toString(), Field.Store.YES));
+        document.add(new TextField(TITLE, image.getTitle() == null ? "" : image.getTitle(), Field.Store.YES));
+        if (image.getDescription() != null) {
+            document.add(new TextField(DESCRIPTION, image.getDescription(), Field.Store.NO));
+        }
+        if (image.getTags() != null) {
+            for (Tag tag : image.getTags()) {
+                document.add(new TextField(TAGS, tag.getName(), Field.Store.NO));
+            }
+        }
+        if (image.getUser() != null) {
+            document.add(new StoredField(USERNAME, image.getUser().getUsername()));
+        }
+        if (image.getDate() != null) {
+            document.add(new StoredField(DATE, image.getDate().getTime()));
+        }
+        if (image.getContentHash() != null) {
+            document.add(new StoredField(CONTENT_HASH, image.getContentHash()));
+        }
+        writer.updateDocument(new Term(ID, image.getId().toString()), document);
+    }
+
+    //The method splits the text into words the same way the indexed text was split, and requires every word in one of the fields
+    //Returns null if the text contains no words, e.g. because it only consists of punctuation
+
+    /**
+     *
+     * @param text
+     * @return
+     * @throws IOException
+     */
+    private Query buildQuery(String text) throws IOException {
+        Set<String> terms = new LinkedHashSet<>();
+        try (TokenStream tokens = analyzer.tokenStream(TITLE, text)) {
+            CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+            tokens.reset();
+            while (tokens.incrementToken() && terms.size() < MAX_TERMS) {
+                terms.add(term.toString());
+            }
+            tokens.end();
+        }
+        if (terms.isEmpty()) {
+            return null;
+        }
+
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String term : terms) {
+            BooleanQuery.Builder termQuery = new BooleanQuery.Builder();
+            for (int i = 0; i < FIELDS.length; i++) {
+                termQuery.add(new BoostQuery(new TermQuery(new Term(FIELDS[i], term)), BOOSTS[i]), BooleanClause.Occur.SHOULD);
+                if (term.length() >= MIN_PREFIX_LENGTH) {
+                    termQuery.add(new BoostQuery(new PrefixQuery(new Term(FIELDS[i], term)), BOOSTS[i] / 2), BooleanClause.Occur.SHOULD);
+                }
+            }
+            query.add(termQuery.build(), BooleanClause.Occur.MUST);
+        }
+        return query.build();
+    }
+
+    private static ImageSummary toSummary(Document document) {
+        IndexableField date = document.getField(DATE);
+        return new ImageSummary(Integer.valueOf(document.get(ID)), document.get(TITLE),
+                date == null ? null : new Date(date.numericValue().longValue()),
+                document.get(USERNAME), document.get(CONTENT_HASH));
+    }
+}
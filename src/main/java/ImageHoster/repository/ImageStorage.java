@@ -0,0 +1,224 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.StoredImage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ *
+ */
+//The class stores the raw bytes of the images on the local disk instead of the database
+//Every file is addressed by the SHA-256 hash of its content and is written to <root>/<first 2 hex chars>/<next 2 hex chars>/<hash>
+//The two levels of sharding keep the number of entries per directory small even with millions of images
+//Since the path is derived from the content, storing the same bytes twice ends up in the same file
+//The number of images sharing a file is kept by ImageBlobRepository, ImageBlobCollector deletes the files no image points to any more
+@Repository
+public class ImageStorage {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Value("${image-hoster.storage.root:image-store}")
+    private String root;
+
+    private Path rootPath;
+
+    private Path tmpPath;
+
+    /**
+     *
+     * @throws IOException
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        rootPath = Paths.get(root).toAbsolutePath();
+        tmpPath = rootPath.resolve("tmp");
+        Files.createDirectories(tmpPath);
+    }
+
+    //The method copies the stream to a temporary file in fixed size chunks while computing the hash of the bytes
+    //Once the hash is known the temporary file is moved to its final location
+    //If a file with the same hash already exists, the temporary file is simply discarded
+    //The existing file is touched, which tells a concurrent deleteIfUnusedSince() that the file is being used again
+
+    /**
+     *
+     * @param imageData
+     * @return
+     * @throws IOException
+     */
+    public StoredImage store(InputStream imageData) throws IOException {
+        MessageDigest digest = newDigest();
+        Path tmpFile = Files.createTempFile(tmpPath, "upload", ".tmp");
+        long size = 0;
+
+        try {
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmpFile), digest)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = imageData.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+
+            String hash = toHex(digest.digest());
+            Path target = resolve(hash);
+            if (!touch(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    //Another upload with the same content won the race, the bytes are identical
+                }
+            }
+            return new StoredImage(hash, size);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    //The method deletes the file with the given hash along with its smaller copies, unless it has been touched by store() since 'cutoff'
+    //The file is first moved out of the way, so that a concurrent store() of the same bytes either touched it before, and it is moved back, or does not find it and writes it again
+    //Returns false if the file was kept
+
+    /**
+     *
+     * @param hash
+     * @param cutoff
+     * @return
+     * @throws IOException
+     */
+    public boolean deleteIfUnusedSince(String hash, long cutoff) throws IOException {
+        Path target = resolve(hash);
+        Path moved = tmpPath.resolve(hash + "-" + System.nanoTime() + ".deleted");
+        try {
+            Files.move(target, moved, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            moved = null;
+        }
+        if (moved != null && Files.getLastModifiedTime(moved).toMillis() >= cutoff) {
+            Files.move(moved, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return false;
+        }
+        if (moved != null) {
+            Files.delete(moved);
+        }
+        try (DirectoryStream<Path> derivatives = Files.newDirectoryStream(target.getParent(), hash + "-w*")) {
+            for (Path derivative : derivatives) {
+                Files.deleteIfExists(derivative);
+            }
+        } catch (NoSuchFileException e) {
+            //The directory of the file does not exist, neither do its smaller copies
+        }
+        return true;
+    }
+
+    //The method returns the path of the file holding the bytes with the given hash
+    //The file itself may not exist
+
+    /**
+     *
+     * @param hash
+     * @return
+     */
+    public Path resolve(String hash) {
+        if (hash == null || hash.length() < 4) {
+            throw new IllegalArgumentException("Invalid content hash: " + hash);
+        }
+        return rootPath.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    /**
+     *
+     * @param hash
+     * @return
+     */
+    public boolean exists(String hash) {
+        return Files.exists(resolve(hash));
+    }
+
+    //Smaller copies of an image are kept next to the original file as <hash>-w<width>.<format>
+
+    /**
+     *
+     * @param hash
+     * @param width
+     * @param format
+     * @return
+     */
+    public Path resolveDerivative(String hash, int width, String format) {
+        return resolve(hash).resolveSibling(hash + "-w" + width + "." + format);
+    }
+
+    //The method creates an empty file in the temporary directory of the storage
+    //Files written there can be moved to their final location with an atomic rename since they are on the same file system
+
+    /**
+     *
+     * @return
+     * @throws IOException
+     */
+    public Path createTempFile() throws IOException {
+        return Files.createTempFile(tmpPath, "derivative", ".tmp");
+    }
+
+    //The method moves a completely written temporary file to the given location of the storage
+    //Readers never see a partially written file, either the target does not exist or it is complete
+
+    /**
+     *
+     * @param tmpFile
+     * @param target
+     * @throws IOException
+     */
+    public void publish(Path tmpFile, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    //Returns false if the file does not exist
+
+    /**
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private static boolean touch(Path file) throws IOException {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,211 @@
+package ImageHoster.repository;
+
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *
+ */
+//The class keeps the perceptual hashes of all the images in memory in a BK-tree, to find the images whose hash differs from a given one in few bits
+//Every node holds one hash and has at most one child per distance d, holding the hashes at exactly d differing bits from the hash of the node
+//By the triangle inequality a hash within 'maxDistance' of the searched one can only be below the children whose distance differs by at most 'maxDistance' from the distance to the node
+//Hence a search with a small distance only visits a small part of the tree
+//Searches share a read lock and changes take the write lock
+@Repository
+public class PerceptualHashIndex {
+
+    private static final int[] NO_IDS = new int[0];
+
+    private Node root;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     *
+     * @param imageId
+     * @param hash
+     */
+    public void add(int imageId, long hash) {
+        lock.writeLock().lock();
+        try {
+            if (root == null) {
+                root = new Node(hash);
+            }
+            Node node = root;
+            int distance;
+            while ((distance = Long.bitCount(node.hash ^ hash)) != 0) {
+                Node child = node.children[distance];
+                if (child == null) {
+                    child = new Node(hash);
+                    node.children[distance] = child;
+                }
+                node = child;
+            }
+            node.addImageId(imageId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //The node of the hash stays in the tree when its last image is removed, a BK-tree cannot drop a node without rebuilding the nodes below it
+
+    /**
+     *
+     * @param imageId
+     * @param hash
+     */
+    public void remove(int imageId, long hash) {
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            while (node != null) {
+                int distance = Long.bitCount(node.hash ^ hash);
+                if (distance == 0) {
+                    node.removeImageId(imageId);
+                    return;
+                }
+                node = node.children[distance];
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     *
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            root = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //The method returns the id of an image whose hash differs from the given hash in at most 'maxDistance' bits, the closest one if there are several
+    //The image with the id 'excludedId' is skipped, so that an edited image is not found as a duplicate of itself
+    //Returns null if there is no such image
+
+    /**
+     *
+     * @param hash
+     * @param maxDistance
+     * @param excludedId
+     * @return
+     */
+    public Integer findClosest(long hash, int maxDistance, Integer excludedId) {
+        lock.readLock().lock();
+        try {
+            Integer closest = null;
+            int closestDistance = maxDistance + 1;
+            Deque<Node> pending = new ArrayDeque<>();
+            if (root != null) {
+                pending.push(root);
+            }
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                int distance = Long.bitCount(node.hash ^ hash);
+                if (distance < closestDistance) {
+                    for (int imageId : node.imageIds) {
+                        if (excludedId == null || imageId != excludedId) {
+                            closest = imageId;
+                            closestDistance = distance;
+                            break;
+                        }
+                    }
+                }
+                //Only the children which may hold a hash closer than the closest found so far are visited
+                int from = Math.max(1, distance - closestDistance + 1);
+                int to = Math.min(64, distance + closestDistance - 1);
+                for (int d = from; d <= to; d++) {
+                    if (node.children[d] != null) {
+                        pending.push(node.children[d]);
+                    }
+                }
+            }
+            return closest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //The method returns the ids of all the images whose hash differs from the given hash in at most 'maxDistance' bits
+
+    /**
+     *
+     * @param hash
+     * @param maxDistance
+     * @return
+     */
+    public List<Integer> findWithin(long hash, int maxDistance) {
+        lock.readLock().lock();
+        try {
+            List<Integer> imageIds = new ArrayList<>();
+            Deque<Node> pending = new ArrayDeque<>();
+            if (root != null) {
+                pending.push(root);
+            }
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                int distance = Long.bitCount(node.hash ^ hash);
+                if (distance <= maxDistance) {
+                    for (int imageId : node.imageIds) {
+                        imageIds.add(imageId);
+                    }
+                }
+                for (int d = Math.max(1, distance - maxDistance); d <= Math.min(64, distance + maxDistance); d++) {
+                    if (node.children[d] != null) {
+                        pending.push(node.children[d]);
+                    }
+                }
+            }
+            return imageIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //A node of the tree, the children are indexed by their distance to the hash of the node, from 1 to 64 bits
+    private static final class Node {
+
+        private final long hash;
+
+        private final Node[] children = new Node[65];
+
+        //The images with exactly this hash, usually only one
+        private int[] imageIds = NO_IDS;
+
+        private Node(long hash) {
+            this.hash = hash;
+        }
+
+        private void addImageId(int imageId) {
+            for (int id : imageIds) {
+                if (id == imageId) {
+                    return;
+                }
+            }
+            imageIds = Arrays.copyOf(imageIds, imageIds.length + 1);
+            imageIds[imageIds.length - 1] = imageId;
+        }
+
+        private void removeImageId(int imageId) {
+            int[] remaining = new int[imageIds.length];
+            int count = 0;
+            for (int id : imageIds) {
+                if (id != imageId) {
+                    remaining[count++] = id;
+                }
+            }
+            imageIds = count == 0 ? NO_IDS : Arrays.copyOf(remaining, count);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package ImageHoster.repository;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *
+ */
+//The class keeps the ids of the images of every tag in memory, so that listing the images of one or more tags does not go to the database
+//The ids of a tag are kept in a Roaring bitmap, which stores runs and dense ranges of ids in a few bits per id and combines sets without looking at every id
+//The tags of every image are kept as well, so that changing the tags of an image only touches the bitmaps of its old and new tags
+//The bitmaps are not thread safe, searches share a read lock and changes take the write lock
+@Repository
+public class TagImageIndex {
+
+    private final Map<String, RoaringBitmap> imagesByTag = new HashMap<>();
+
+    private final Map<Integer, Set<String>> tagsByImage = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     *
+     * @param imageId
+     * @param tagName
+     */
+    public void add(int imageId, String tagName) {
+        lock.writeLock().lock();
+        try {
+            addToTag(imageId, tagName);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //The method sets the tags of the image, removing it from the tags it had before
+    //Returns the names of the tags the image had before
+
+    /**
+     *
+     * @param imageId
+     * @param tagNames
+     * @return
+     */
+    public Set<String> replace(int imageId, Collection<String> tagNames) {
+        lock.writeLock().lock();
+        try {
+            Set<String> previous = removeFromTags(imageId, tagNames);
+            for (String tagName : tagNames) {
+                addToTag(imageId, tagName);
+            }
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Returns the names of the tags the image was removed from
+
+    /**
+     *
+     * @param imageId
+     * @return
+     */
+    public Set<String> remove(int imageId) {
+        lock.writeLock().lock();
+        try {
+            return removeFromTags(imageId, Collections.emptySet());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     *
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            imagesByTag.clear();
+            tagsByImage.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     *
+     * @param tagName
+     * @return
+     */
+    public long getImageCount(String tagName) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap imageIds = imagesByTag.get(tagName);
+            return imageIds == null ? 0 : imageIds.getLongCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //The method converts long runs of consecutive ids to a compact representation, to be called after many ids have been added
+
+    /**
+     *
+     */
+    public void optimize() {
+        lock.writeLock().lock();
+        try {
+            for (RoaringBitmap imageIds : imagesByTag.values()) {
+                imageIds.runOptimize();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //The method returns at most 'limit' ids of the images having all (or, if 'matchAll' is false, any) of the tags, highest id first
+    //If 'beforeId' is given only the ids below it are returned, which continues the list after the last id of the previous page
+    //Ids are positive, hence there is nothing below a 'beforeId' of 0 or less
+    //The position of 'beforeId' in the set is found from the counts kept per block of ids, hence every page costs the same however deep it is
+
+    /**
+     *
+     * @param tagNames
+     * @param matchAll
+     * @param beforeId
+     * @param limit
+     * @return
+     */
+    public List<Integer> getImageIds(Collection<String> tagNames, boolean matchAll, Integer beforeId, int limit) {
+        lock.readLock().lock();
+        try {
+            List<RoaringBitmap> bitmaps = new ArrayList<>();
+            for (String tagName : tagNames) {
+                RoaringBitmap imageIds = imagesByTag.get(tagName);
+                if (imageIds != null) {
+                    bitmaps.add(imageIds);
+                } else if (matchAll) {
+                    return new ArrayList<>();
+                }
+            }
+            if (bitmaps.isEmpty() || beforeId != null && beforeId <= 0) {
+                return new ArrayList<>();
+            }
+
+            RoaringBitmap matches;
+            if (bitmaps.size() == 1) {
+                matches = bitmaps.get(0);
+            } else {
+                Iterator<RoaringBitmap> iterator = bitmaps.iterator();
+                matches = matchAll ? FastAggregation.and(iterator) : FastAggregation.or(iterator);
+            }
+
+            long end = beforeId == null ? matches.getLongCardinality() : matches.rankLong(beforeId - 1);
+            List<Integer> ids = new ArrayList<>();
+            for (long i = end - 1; i >= 0 && ids.size() < limit; i--) {
+                ids.add(matches.select((int) i));
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addToTag(int imageId, String tagName) {
+        imagesByTag.computeIfAbsent(tagName, name -> new RoaringBitmap()).add(imageId);
+        tagsByImage.computeIfAbsent(imageId, id -> new HashSet<>()).add(tagName);
+    }
+
+    //Removes the image from the tags it has, except the kept ones, and returns all the tags it had
+    private Set<String> removeFromTags(int imageId, Collection<String> keptTagNames) {
+        Set<String> previous = tagsByImage.remove(imageId);
+        if (previous == null) {
+            return new HashSet<>();
+        }
+        for (String tagName : previous) {
+            if (keptTagNames.contains(tagName)) {
+                continue;
+            }
+            RoaringBitmap imageIds = imagesByTag.get(tagName);
+            imageIds.remove(imageId);
+            if (imageIds.isEmpty()) {
+                imagesByTag.remove(tagName);
+            }
+        }
+        return previous;
+    }
+}
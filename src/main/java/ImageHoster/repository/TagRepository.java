@@ -1,49 +1,115 @@
 package ImageHoster.repository;
 
 import ImageHoster.model.Tag;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.query.NativeQuery;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
+import java.util.Collection;
+import java.util.List;
 
 /**
  *
  */
 @Repository
+@Transactional(readOnly = true)
 public class TagRepository {
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
     /**
      *
      * @param tag
      * @return
      */
+    @Transactional
     public Tag createTag(Tag tag) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.persist(tag);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
-        }
+        em.persist(tag);
         return tag;
     }
 
+    //The result of the query is kept in the query cache (region 'tag-by-name' in ehcache.xml) and the tag itself in the second-level cache
+    //Hibernate invalidates the cached results whenever a tag is created, including the ones which found no tag
+
     /**
      *
      * @param tagName
      * @return
      */
     public Tag findTag(String tagName) {
-        EntityManager em = emf.createEntityManager();
         try {
             TypedQuery<Tag> typedQuery = em.createQuery("SELECT t from Tag t where t.name =:tagName", Tag.class).setParameter("tagName", tagName);
+            typedQuery.setHint(QueryHints.CACHEABLE, true);
+            typedQuery.setHint(QueryHints.CACHE_REGION, "tag-by-name");
             return typedQuery.getSingleResult();
         } catch (NoResultException nre) {
             return null;
         }
     }
+
+    //The method fetches all the tags with one of the given names in a single query
+    //Names without a tag are simply missing from the result
+
+    /**
+     *
+     * @param tagNames
+     * @return
+     */
+    public List<Tag> findTags(Collection<String> tagNames) {
+        TypedQuery<Tag> typedQuery = em.createQuery("SELECT t from Tag t where t.name IN :tagNames", Tag.class);
+        typedQuery.setParameter("tagNames", tagNames);
+        return typedQuery.getResultList();
+    }
+
+    //The method returns at most 'limit' tags with an id above 'afterId' as [tag id, tag name, number of images], in the order of their ids
+    //Used to walk through all the tags in batches, e.g. to build the index of the tag suggestions
+
+    /**
+     *
+     * @param afterId
+     * @param limit
+     * @return
+     */
+    public List<Object[]> getTagUsageAfter(Integer afterId, int limit) {
+        return em.createQuery("SELECT t.id, t.name, COUNT(i.id) FROM Tag t LEFT JOIN t.images i WHERE t.id > :afterId GROUP BY t.id, t.name ORDER BY t.id", Object[].class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    //The method inserts a tag for every given name in a single statement
+    //A name which already has a tag, e.g. because another upload created it concurrently, is skipped thanks to the unique constraint on the name
+    //If the other transaction has not committed yet, the statement waits for it and then skips the name
+    //The query is declared to change the tags only, so that Hibernate does not clear the whole second-level cache
+    //The ids are taken from the same pooled id generator as the tags persisted by Hibernate, usually without a round trip to the sequence
+
+    /**
+     *
+     * @param tagNames
+     * @return
+     */
+    @Transactional
+    public int insertTags(Collection<String> tagNames) {
+        StringBuilder sql = new StringBuilder("INSERT INTO tags (id, name) VALUES ");
+        for (int i = 0; i < tagNames.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(:id").append(i).append(", :name").append(i).append(")");
+        }
+        sql.append(" ON CONFLICT DO NOTHING");
+
+        SharedSessionContractImplementor session = em.unwrap(SharedSessionContractImplementor.class);
+        IdentifierGenerator idGenerator = session.getFactory().getMetamodel().entityPersister(Tag.class).getIdentifierGenerator();
+        Query query = em.createNativeQuery(sql.toString());
+        int i = 0;
+        for (String tagName : tagNames) {
+            query.setParameter("id" + i, idGenerator.generate(session, null));
+            query.setParameter("name" + i++, tagName);
+        }
+        return query.unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(Tag.class)
+                .executeUpdate();
+    }
 }
@@ -0,0 +1,169 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.TagSuggestion;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *
+ */
+//The class keeps the names of all the tags in memory in a prefix tree (trie), one node per character, along with the number of images of every tag
+//Every node remembers the most used tags starting with its prefix, hence a suggestion only walks down the characters of the prefix and copies that list
+//The list of a node is merged from its own tag and the lists of its children, so a changed count only updates the nodes on the path of that tag
+//Suggestions share a read lock and changes take the write lock
+@Repository
+public class TagSuggestionIndex {
+
+    private static final Comparator<TagSuggestion> MOST_USED_FIRST = Comparator.comparingLong(TagSuggestion::getCount).reversed()
+            .thenComparing(TagSuggestion::getName);
+
+    private static final TagSuggestion[] NONE = new TagSuggestion[0];
+
+    //The number of tags kept per prefix, which is the largest number of suggestions returned
+    @Value("${image-hoster.tags.max-suggestions:10}")
+    private int maxSuggestions = 10;
+
+    private Node root = new Node();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //The method adds the tag with the given count, or sets the count of the tag if it exists
+
+    /**
+     *
+     * @param name
+     * @param count
+     */
+    public void put(String name, long count) {
+        lock.writeLock().lock();
+        try {
+            update(name, count, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //The method adds the tag with a count of 0 if it does not exist, and leaves the count of an existing tag alone
+
+    /**
+     *
+     * @param name
+     */
+    public void putIfAbsent(String name) {
+        lock.writeLock().lock();
+        try {
+            update(name, 0, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     *
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            root = new Node();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //The method returns at most 'limit' tags whose names start with the prefix, most used first
+    //The prefix is expected in the normalized form of the tag names, i.e. lower-cased with single spaces
+
+    /**
+     *
+     * @param prefix
+     * @param limit
+     * @return
+     */
+    public List<TagSuggestion> suggest(String prefix, int limit) {
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < prefix.length() && node != null; i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            if (node == null) {
+                return new ArrayList<>();
+            }
+            return new ArrayList<>(Arrays.asList(node.top).subList(0, Math.min(limit, node.top.length)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void update(String name, long count, boolean replace) {
+        Node[] path = new Node[name.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < name.length(); i++) {
+            Node child = path[i].child(name.charAt(i));
+            path[i + 1] = child != null ? child : path[i].addChild(name.charAt(i));
+        }
+
+        Node node = path[name.length()];
+        if (node.tag != null && (!replace || node.tag.getCount() == count)) {
+            return;
+        }
+        node.tag = new TagSuggestion(name, count);
+        for (int i = path.length - 1; i >= 0; i--) {
+            path[i].top = mergeTop(path[i]);
+        }
+    }
+
+    private TagSuggestion[] mergeTop(Node node) {
+        List<TagSuggestion> candidates = new ArrayList<>();
+        if (node.tag != null) {
+            candidates.add(node.tag);
+        }
+        for (Node child : node.children) {
+            candidates.addAll(Arrays.asList(child.top));
+        }
+        candidates.sort(MOST_USED_FIRST);
+        return candidates.subList(0, Math.min(maxSuggestions, candidates.size())).toArray(NONE);
+    }
+
+    //A node of the trie, the children are kept in arrays sorted by their character, which takes much less memory than a map per node
+    private static final class Node {
+
+        private char[] keys = new char[0];
+
+        private Node[] children = new Node[0];
+
+        //The tag whose name ends at this node, if any
+        private TagSuggestion tag;
+
+        //The most used tags starting with the prefix of this node, most used first
+        private TagSuggestion[] top = NONE;
+
+        private Node child(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node addChild(char key) {
+            int index = -Arrays.binarySearch(keys, key) - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            Node child = new Node();
+            newKeys[index] = key;
+            newChildren[index] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.UploadSession;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ *
+ */
+//The class keeps the uploads sent in chunks on the local disk until they are complete, every upload in its own directory <root>/<id>
+//The directory holds 'session.properties' with the owner and the announced size, and 'data' with the bytes verified so far
+//A chunk is first written to 'chunk' and only appended to 'data' once its checksum matches, hence the size of 'data' is always the offset from which the upload can be resumed, also after a restart
+@Repository
+public class UploadSessionStorage {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    private static final String SESSION_FILE = "session.properties";
+    private static final String DATA_FILE = "data";
+    private static final String CHUNK_FILE = "chunk";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Value("${image-hoster.uploads.session-dir:upload-sessions}")
+    private String root;
+
+    private Path rootPath;
+
+    /**
+     *
+     * @throws IOException
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        rootPath = Paths.get(root).toAbsolutePath();
+        Files.createDirectories(rootPath);
+    }
+
+    /**
+     *
+     * @param userId
+     * @param size
+     * @return
+     * @throws IOException
+     */
+    public UploadSession create(Integer userId, long size) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Path directory = rootPath.resolve(id);
+        Files.createDirectory(directory);
+
+        Properties properties = new Properties();
+        properties.setProperty("userId", userId.toString());
+        properties.setProperty("size", Long.toString(size));
+        try (Writer out = Files.newBufferedWriter(directory.resolve(SESSION_FILE), StandardCharsets.UTF_8)) {
+            properties.store(out, null);
+        }
+        Files.createFile(directory.resolve(DATA_FILE));
+        return new UploadSession(id, userId, size, 0);
+    }
+
+    //Returns null if there is no upload with that id, e.g. because it was completed or has expired
+
+    /**
+     *
+     * @param id
+     * @return
+     * @throws IOException
+     */
+    public UploadSession get(String id) throws IOException {
+        Path directory = resolve(id);
+        if (directory == null) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(directory.resolve(SESSION_FILE), StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return new UploadSession(id, Integer.valueOf(properties.getProperty("userId")), Long.parseLong(properties.getProperty("size")),
+                Files.size(directory.resolve(DATA_FILE)));
+    }
+
+    //The method appends the chunk read from the stream to the upload, if the chunk starts at the current offset and its SHA-256 hash is the expected one
+    //At most 'maxLength' bytes are read, the chunk is copied in fixed size buffers and appended to the data by the file system without passing through the heap
+    //Only one chunk of an upload is written at a time, a chunk sent while another one is being written is refused
+    //Returns the upload with its new offset, or null if there is no upload with that id
+    //Throws ChunkRejectedException if the chunk is refused, in which case the offset does not change
+
+    /**
+     *
+     * @param id
+     * @param offset
+     * @param chunk
+     * @param maxLength
+     * @param expectedHash
+     * @return
+     * @throws IOException
+     */
+    public UploadSession append(String id, long offset, InputStream chunk, long maxLength, String expectedHash) throws IOException {
+        UploadSession session = get(id);
+        if (session == null) {
+            return null;
+        }
+        Path directory = resolve(id);
+        try (FileChannel data = FileChannel.open(directory.resolve(DATA_FILE), StandardOpenOption.WRITE);
+             FileLock lock = data.tryLock()) {
+            if (lock == null) {
+                throw new ChunkRejectedException("Another chunk of the upload is being written", session);
+            }
+            if (offset != data.size()) {
+                throw new ChunkRejectedException("The next chunk starts at " + data.size(), get(id));
+            }
+
+            Path chunkFile = directory.resolve(CHUNK_FILE);
+            try {
+                MessageDigest digest = newDigest();
+                long length = 0;
+                try (OutputStream out = new DigestOutputStream(Files.newOutputStream(chunkFile), digest)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = chunk.read(buffer)) != -1) {
+                        length += read;
+                        if (length > maxLength) {
+                            throw new ChunkRejectedException("The chunk is longer than " + maxLength + " bytes", session);
+                        }
+                        out.write(buffer, 0, read);
+                    }
+                }
+                if (expectedHash != null && !toHex(digest.digest()).equalsIgnoreCase(expectedHash)) {
+                    throw new ChunkRejectedException("The checksum of the chunk does not match", session);
+                }
+
+                try (FileChannel in = FileChannel.open(chunkFile, StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < length) {
+                        position += in.transferTo(position, length - position, data.position(offset + position));
+                    }
+                }
+                data.force(false);
+            } finally {
+                Files.deleteIfExists(chunkFile);
+            }
+            Files.setLastModifiedTime(directory, FileTime.fromMillis(System.currentTimeMillis()));
+            return new UploadSession(id, session.getUserId(), session.getSize(), data.size());
+        } catch (OverlappingFileLockException e) {
+            throw new ChunkRejectedException("Another chunk of the upload is being written", session);
+        }
+    }
+
+    //The method returns the path of the file holding the bytes received so far
+
+    /**
+     *
+     * @param id
+     * @return
+     */
+    public Path getData(String id) {
+        Path directory = resolve(id);
+        return directory == null ? null : directory.resolve(DATA_FILE);
+    }
+
+    /**
+     *
+     * @param id
+     * @throws IOException
+     */
+    public void delete(String id) throws IOException {
+        Path directory = resolve(id);
+        if (directory == null) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    //The method returns the ids of the uploads which have not received a chunk since 'cutoff'
+
+    /**
+     *
+     * @param cutoff
+     * @return
+     * @throws IOException
+     */
+    public List<String> getIdleSessions(long cutoff) throws IOException {
+        List<String> ids = new ArrayList<>();
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(rootPath)) {
+            for (Path directory : directories) {
+                if (ID_PATTERN.matcher(directory.getFileName().toString()).matches()
+                        && Files.getLastModifiedTime(directory).toMillis() < cutoff) {
+                    ids.add(directory.getFileName().toString());
+                }
+            }
+        }
+        return ids;
+    }
+
+    //The id comes from the client, only ids of the generated form are accepted so that it cannot point outside the root directory
+    private Path resolve(String id) {
+        if (id == null || !ID_PATTERN.matcher(id).matches()) {
+            return null;
+        }
+        Path directory = rootPath.resolve(id);
+        return Files.isDirectory(directory) ? directory : null;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -2,6 +2,7 @@ package ImageHoster.repository;
 
 import ImageHoster.model.User;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
 
@@ -10,14 +11,14 @@ import javax.persistence.*;
  */
 //The annotation is a special type of @Component annotation which describes that the class defines a data repository
 @Repository
+@Transactional(readOnly = true)
 public class UserRepository {
-    //Get an instance of EntityManagerFactory from persistence unit with name as 'imageHoster'
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //Every call is delegated to the EntityManager of the current transaction, which is closed when the transaction ends
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
     //The method receives the User object to be persisted in the database
-    //Creates an instance of EntityManager
-    //Starts a transaction
     //The transaction is committed if it is successful
     //The transaction is rolled back in case of unsuccessful transaction
 
@@ -25,23 +26,14 @@ public class UserRepository {
      *
      * @param newUser
      */
+    @Transactional
     public void registerUser(User newUser) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            //persist() method changes the state of the model object from transient state to persistence state
-            em.persist(newUser);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
-        }
+        //persist() method changes the state of the model object from transient state to persistence state
+        em.persist(newUser);
     }
 
 
     //The method receives the entered username and password
-    //Creates an instance of EntityManager
     //Executes JPQL query to fetch the user from User class where username is equal to received username and password is equal to received password
     //Returns the fetched user
     //Returns null in case of NoResultException
@@ -54,7 +46,6 @@ public class UserRepository {
      */
     public User checkUser(String username, String password) {
         try {
-            EntityManager em = emf.createEntityManager();
             TypedQuery<User> typedQuery = em.createQuery("SELECT u FROM User u WHERE u.username = :username AND u.password = :password", User.class);
             typedQuery.setParameter("username", username);
             typedQuery.setParameter("password", password);
@@ -0,0 +1,162 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.UploadSession;
+import ImageHoster.repository.ChunkRejectedException;
+import ImageHoster.repository.UploadSessionStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ *
+ */
+//The service receives large uploads in chunks, so that an upload interrupted by a lost connection continues from the last chunk received instead of starting again
+//The client starts an upload announcing its size, sends the chunks in order along with the SHA-256 hash of each chunk, and completes the upload with the title, description and tags of the image
+//The chunks are kept in UploadSessionStorage, on completion the assembled file is streamed to ImageService.uploadImage() like a file uploaded in one piece
+//Uploads which do not receive a chunk for the session timeout are deleted
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    @Value("${image-hoster.uploads.max-size:20971520}")
+    private long maxSize;
+
+    @Value("${image-hoster.uploads.max-chunk-size:8388608}")
+    private long maxChunkSize;
+
+    //Milliseconds after the last chunk at which an unfinished upload is deleted
+    @Value("${image-hoster.uploads.session-timeout:86400000}")
+    private long sessionTimeout;
+
+    @Autowired
+    private UploadSessionStorage uploadSessionStorage;
+
+    @Autowired
+    private ImageService imageService;
+
+    //Throws InvalidImageException if the announced size is larger than allowed for an image
+
+    /**
+     *
+     * @param userId
+     * @param size
+     * @return
+     * @throws IOException
+     */
+    public UploadSession start(Integer userId, long size) throws IOException {
+        if (size <= 0 || size > maxSize) {
+            throw new InvalidImageException("The size of the image must be between 1 and " + maxSize + " bytes");
+        }
+        return uploadSessionStorage.create(userId, size);
+    }
+
+    //Returns null if there is no such upload or it was started by another user
+
+    /**
+     *
+     * @param id
+     * @param userId
+     * @return
+     * @throws IOException
+     */
+    public UploadSession getSession(String id, Integer userId) throws IOException {
+        UploadSession session = uploadSessionStorage.get(id);
+        return session == null || !session.getUserId().equals(userId) ? null : session;
+    }
+
+    //The method appends the chunk to the upload if it starts at the current offset and its bytes have the given SHA-256 hash
+    //A chunk may not go beyond the announced size of the file
+    //Returns the upload with its new offset, or null if there is no such upload of the user
+    //Throws ChunkRejectedException if the chunk is refused, the exception holds the offset from which to send it again
+
+    /**
+     *
+     * @param id
+     * @param userId
+     * @param offset
+     * @param chunk
+     * @param checksum
+     * @return
+     * @throws IOException
+     */
+    public UploadSession appendChunk(String id, Integer userId, long offset, InputStream chunk, String checksum) throws IOException {
+        UploadSession session = getSession(id, userId);
+        if (session == null) {
+            return null;
+        }
+        if (checksum == null || checksum.isEmpty()) {
+            throw new ChunkRejectedException("The checksum of the chunk is missing", session);
+        }
+        return uploadSessionStorage.append(id, offset, chunk, Math.min(maxChunkSize, session.getSize() - offset), checksum);
+    }
+
+    //The method creates the image from the complete file of the upload, which is then deleted
+    //The file is read from the disk as a stream, it is checked and stored like a file uploaded in one piece, see ImageService.uploadImage()
+    //Returns null if there is no such upload of the user
+    //Throws ChunkRejectedException if bytes of the file are still missing, InvalidImageException or DuplicateImageException if the image is refused
+
+    /**
+     *
+     * @param id
+     * @param userId
+     * @param image
+     * @return
+     * @throws IOException
+     */
+    public Image complete(String id, Integer userId, Image image) throws IOException {
+        UploadSession session = getSession(id, userId);
+        if (session == null) {
+            return null;
+        }
+        if (!session.isComplete()) {
+            throw new ChunkRejectedException("The bytes from " + session.getOffset() + " are missing", session);
+        }
+        try (InputStream imageData = Files.newInputStream(uploadSessionStorage.getData(id))) {
+            imageService.uploadImage(image, imageData);
+        } catch (InvalidImageException | DuplicateImageException e) {
+            //Sending the same bytes again would not help
+            uploadSessionStorage.delete(id);
+            throw e;
+        }
+        uploadSessionStorage.delete(id);
+        return image;
+    }
+
+    /**
+     *
+     * @param id
+     * @param userId
+     * @return
+     * @throws IOException
+     */
+    public boolean cancel(String id, Integer userId) throws IOException {
+        if (getSession(id, userId) == null) {
+            return false;
+        }
+        uploadSessionStorage.delete(id);
+        return true;
+    }
+
+    //Periodically deletes the uploads which have not received a chunk for the session timeout
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Scheduled(fixedDelayString = "${image-hoster.uploads.expiry-interval:3600000}")
+    public void deleteIdleSessions() throws IOException {
+        for (String id : uploadSessionStorage.getIdleSessions(System.currentTimeMillis() - sessionTimeout)) {
+            uploadSessionStorage.delete(id);
+            log.info("Deleted the unfinished upload {}", id);
+        }
+    }
+}
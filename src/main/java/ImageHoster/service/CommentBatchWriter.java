@@ -0,0 +1,199 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
+import ImageHoster.repository.CommentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+//The service writes the posted comments to the database in batches, so that many comments posted at the same time share one transaction
+//The comments are queued and a single writer thread inserts them in batches, each batch in one transaction with batched JDBC inserts
+//A batch is written as soon as it has 'image-hoster.comments.batch-size' comments or 'image-hoster.comments.flush-interval' milliseconds after its first comment was queued
+//Every submitted comment comes with a future which completes once its batch is written, or fails if the comment could not be written
+//When the application stops, the comments still in the queue are written before the database connections are closed
+//The EntityManagerFactory is only closed after that, hence the writer depends on it
+@Service
+@DependsOn("entityManagerFactory")
+public class CommentBatchWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(CommentBatchWriter.class);
+
+    @Value("${image-hoster.comments.batch-size:50}")
+    private int batchSize;
+
+    @Value("${image-hoster.comments.flush-interval:200}")
+    private long flushInterval;
+
+    @Value("${image-hoster.comments.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${image-hoster.comments.shutdown-timeout:10000}")
+    private long shutdownTimeout;
+
+    @Autowired
+    private CommentRepository commentRepository;
+
+    private BlockingQueue<PendingComment> queue;
+
+    private Thread writer;
+
+    private volatile boolean running;
+
+    /**
+     *
+     */
+    @PostConstruct
+    public void start() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+        writer = new Thread(this::run, "comment-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //The writer stops taking new comments, writes the queued ones and waits at most 'image-hoster.comments.shutdown-timeout' milliseconds for it
+
+    /**
+     *
+     * @throws InterruptedException
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writer.join(shutdownTimeout);
+        if (writer.isAlive()) {
+            log.error("{} comments could not be written before shutdown", queue.size());
+        }
+    }
+
+    //The method queues the comment of the image with the given id and returns immediately
+    //The returned future completes once the comment is written, or completes exceptionally if it could not be written
+    //If the queue is full, or the writer has already stopped, the comment is written right away in the calling thread
+
+    /**
+     *
+     * @param imageId
+     * @param comment
+     * @return
+     */
+    public CompletableFuture<Void> submit(Integer imageId, Comment comment) {
+        comment.setImage(imageWithId(imageId));
+        PendingComment pending = new PendingComment(comment);
+        boolean queued = running && queue.offer(pending);
+        //The writer may have stopped right after the check, then the comment is taken back unless it has been picked up already
+        if (!queued || (!running && queue.remove(pending))) {
+            try {
+                commentRepository.saveComments(Collections.singletonList(comment));
+                pending.written.complete(null);
+            } catch (RuntimeException e) {
+                pending.written.completeExceptionally(e);
+            }
+        }
+        return pending.written;
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingComment first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingComment> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+                while (batch.size() < batchSize && running) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || wait <= 0) {
+                        break;
+                    }
+                    PendingComment next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                //While shutting down there is no point in waiting, but the batches are still limited in size
+                queue.drainTo(batch, batchSize - batch.size());
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    //The method writes the batch in one transaction
+    //If that fails, e.g. because one of the images has been deleted in the meantime, the comments are written one by one so that only the failing ones are lost
+    //The futures of the comments which could not be written fail, so that their authors learn about it
+
+    /**
+     *
+     * @param batch
+     */
+    private void write(List<PendingComment> batch) {
+        //The repository replaces the images of the comments with proxies, which cannot be used any more once its transaction is over
+        List<Comment> comments = new ArrayList<>(batch.size());
+        List<Integer> imageIds = new ArrayList<>(batch.size());
+        for (PendingComment pending : batch) {
+            comments.add(pending.comment);
+            imageIds.add(pending.comment.getImage().getId());
+        }
+        try {
+            commentRepository.saveComments(comments);
+            for (PendingComment pending : batch) {
+                pending.written.complete(null);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not write a batch of {} comments, writing them one by one", batch.size(), e);
+            for (int i = 0; i < batch.size(); i++) {
+                Comment comment = comments.get(i);
+                comment.setImage(imageWithId(imageIds.get(i)));
+                comment.setId(null);
+                try {
+                    commentRepository.saveComments(Collections.singletonList(comment));
+                    batch.get(i).written.complete(null);
+                } catch (RuntimeException e1) {
+                    log.error("Could not write the comment of image {}", imageIds.get(i), e1);
+                    batch.get(i).written.completeExceptionally(e1);
+                }
+            }
+        }
+    }
+
+    //Only the id of the image is known here, the repository refers to the image by that id without loading it
+    private static Image imageWithId(Integer imageId) {
+        Image image = new Image();
+        image.setId(imageId);
+        return image;
+    }
+
+    private static class PendingComment {
+
+        private final Comment comment;
+
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        private PendingComment(Comment comment) {
+            this.comment = comment;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Comment;
+import ImageHoster.model.CommentSummary;
+import ImageHoster.model.CursorPage;
+import ImageHoster.repository.CommentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ *
+ */
+@Service
+public class CommentService {
+
+    private static final Logger log = LoggerFactory.getLogger(CommentService.class);
+
+    @Autowired
+    private CommentRepository commentRepository;
+
+    @Autowired
+    private CommentBatchWriter commentBatchWriter;
+
+    @Value("${image-hoster.comments.page-size:20}")
+    private int defaultPageSize;
+
+    @Value("${image-hoster.comments.max-page-size:100}")
+    private int maxPageSize;
+
+    @Value("${image-hoster.comments.submit-timeout:5000}")
+    private long submitTimeout;
+
+    //The method returns one page of the comments of the image, oldest first
+    //'after' is the cursor of the page from which the user loads more comments, it is null for the first page
+    //The cursor is the id of the last comment of that page, an invalid cursor gives the first page
+    //One more comment than the page size is fetched to know whether there are more comments after this page
+
+    /**
+     *
+     * @param imageId
+     * @param after
+     * @param size
+     * @return
+     */
+    public CursorPage<CommentSummary> getCommentPage(Integer imageId, String after, Integer size) {
+        int pageSize = size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+        Integer afterId = decodeCursor(after);
+
+        List<CommentSummary> comments = commentRepository.getCommentsAfter(imageId, afterId, pageSize + 1);
+        boolean hasNext = comments.size() > pageSize;
+        comments = comments.subList(0, Math.min(comments.size(), pageSize));
+        String next = hasNext ? comments.get(comments.size() - 1).getId().toString() : null;
+        return new CursorPage<>(comments, next, null);
+    }
+
+    //The method sets the date of the comment and queues it to be persisted for the image with the given id
+    //The comment is written together with the other comments posted meanwhile, the method waits until its batch has been written
+    //Hence the image page the author is sent to next already shows the comment
+    //Returns false if the comment could not be written
+    //If the batch takes longer than 'image-hoster.comments.submit-timeout' milliseconds the method returns true, the comment shows up once it is written
+
+    /**
+     *
+     * @param imageId
+     * @param comment
+     * @return
+     */
+    public boolean submitComment(Integer imageId, Comment comment) {
+        comment.setCreatedDate(LocalDate.now());
+        try {
+            commentBatchWriter.submit(imageId, comment).get(submitTimeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (TimeoutException e) {
+            log.warn("The comment of image {} is still being written after {} ms", imageId, submitTimeout);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    private static Integer decodeCursor(String after) {
+        if (after == null || after.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(after);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.ImageStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ */
+//The service generates smaller copies (derivatives) of the uploaded images, so that the galleries do not have to send the full size originals
+//The work is done on a small pool of background threads, the upload request only queues the content hash of the new file
+//Every derivative is written to a temporary file and then renamed, hence generating them again after a crash or for a second upload of the same file is harmless
+//The images are flagged once their derivatives exist, the flag is used to pick up unfinished work after a restart
+@Service
+public class DerivativeService {
+
+    private static final Logger log = LoggerFactory.getLogger(DerivativeService.class);
+
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private static final int RESUME_BATCH_SIZE = 100;
+
+    @Value("${image-hoster.derivatives.widths:200,800,1600}")
+    private int[] widths;
+
+    @Value("${image-hoster.derivatives.threads:2}")
+    private int threads;
+
+    @Value("${image-hoster.derivatives.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    private ThreadPoolExecutor executor;
+
+    //Content hashes which are queued or being processed, so that the same file is not processed twice at the same time
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     *
+     */
+    @PostConstruct
+    public void init() {
+        widths = Arrays.stream(widths).distinct().sorted().toArray();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "derivatives-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    /**
+     *
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    //The method returns the widths of the derivatives generated for every image, in ascending order
+
+    /**
+     *
+     * @return
+     */
+    public int[] getWidths() {
+        return widths.clone();
+    }
+
+    //The method returns the derivative of the image with the given hash and width, or null if it does not exist
+
+    /**
+     *
+     * @param contentHash
+     * @param width
+     * @return
+     */
+    public Path findDerivative(String contentHash, int width) {
+        for (String format : new String[]{"jpg", "png"}) {
+            Path derivative = imageStorage.resolveDerivative(contentHash, width, format);
+            if (Files.exists(derivative)) {
+                return derivative;
+            }
+        }
+        return null;
+    }
+
+    //The method queues the generation of the derivatives of the file with the given hash and returns immediately
+    //If the queue is full the request is dropped, the periodic resume picks the image up again later
+
+    /**
+     *
+     * @param contentHash
+     */
+    public void submit(String contentHash) {
+        if (!pending.add(contentHash)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generateDerivatives(contentHash);
+                } finally {
+                    pending.remove(contentHash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(contentHash);
+            log.warn("Derivative queue is full, {} will be processed later", contentHash);
+        }
+    }
+
+    //On startup and then periodically, the method queues the images whose derivatives were never completed, e.g. because the application stopped
+
+    /**
+     *
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${image-hoster.derivatives.resume-interval:600000}", fixedDelayString = "${image-hoster.derivatives.resume-interval:600000}")
+    public void resume() {
+        if (executor.getQueue().size() > queueCapacity / 2) {
+            return;
+        }
+        for (String contentHash : imageRepository.getContentHashesWithoutDerivatives(RESUME_BATCH_SIZE)) {
+            submit(contentHash);
+        }
+    }
+
+    private void generateDerivatives(String contentHash) {
+        try {
+            Path original = imageStorage.resolve(contentHash);
+            //Only the header of the file is read to find out whether derivatives are missing, the pixels are decoded if they are
+            Dimension decoded = Files.exists(original) ? readDecodedSize(original, widths[widths.length - 1]) : null;
+            if (decoded != null && !allDerivativesExist(contentHash, decoded.width)) {
+                BufferedImage source = readImage(original, widths[widths.length - 1]);
+                if (source != null) {
+                    String format = source.getColorModel().hasAlpha() ? "png" : "jpg";
+                    //The largest derivative is computed first and each next one is scaled down from the previous, which is cheaper than starting from the original every time
+                    for (int i = widths.length - 1; i >= 0; i--) {
+                        if (widths[i] >= source.getWidth()) {
+                            continue;
+                        }
+                        source = scaleToWidth(source, widths[i]);
+                        Path target = imageStorage.resolveDerivative(contentHash, widths[i], format);
+                        if (!Files.exists(target)) {
+                            write(source, format, target);
+                        }
+                    }
+                }
+            }
+            imageRepository.markDerivativesReady(contentHash);
+        } catch (IIOException e) {
+            //The file cannot be decoded, trying again later would not help. The galleries show the original instead
+            log.warn("Could not decode {}, no derivatives are generated for it", contentHash, e);
+            imageRepository.markDerivativesReady(contentHash);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not generate the derivatives of {}", contentHash, e);
+        }
+    }
+
+    //No derivative is generated for the widths at or above the width of the decoded image, they count as existing
+    //Otherwise a small image would be decoded again every time it is submitted
+    private boolean allDerivativesExist(String contentHash, int sourceWidth) {
+        for (int width : widths) {
+            if (width < sourceWidth && findDerivative(contentHash, width) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //The method decodes the image, skipping pixels while reading when the file is much larger than the largest derivative
+    //Skipping keeps at least twice the target resolution so that the following scaling steps still have enough detail
+    //Returns null if the format of the file is not supported by ImageIO, see getSubsampling() for how many pixels are skipped
+
+    /**
+     *
+     * @param file
+     * @param largestWidth
+     * @return
+     * @throws IOException
+     */
+    static BufferedImage readImage(Path file, int largestWidth) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), largestWidth);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    //The method returns the size of the image readImage() decodes from the file, reading only the header of the file
+    //Returns null if the format of the file is not supported by ImageIO
+
+    /**
+     *
+     * @param file
+     * @param largestWidth
+     * @return
+     * @throws IOException
+     */
+    static Dimension readDecodedSize(Path file, int largestWidth) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int subsampling = getSubsampling(width, height, largestWidth);
+                //Subsampling keeps the first pixel of every 'subsampling' pixels, including the last partial group
+                return new Dimension((width + subsampling - 1) / subsampling, (height + subsampling - 1) / subsampling);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    //The method returns how many pixels are skipped in both directions when decoding an image of the given size
+    //The width is reduced to about twice the largest width, and the decoded image may not have more pixels than two squares of that side
+    //Without the second limit a very tall and narrow image would be decoded at full size, whatever its width
+
+    /**
+     *
+     * @param width
+     * @param height
+     * @param largestWidth
+     * @return
+     */
+    static int getSubsampling(int width, int height, int largestWidth) {
+        long side = largestWidth * 2L;
+        int byWidth = (int) Math.max(1, width / side);
+        int byPixels = (int) Math.ceil(Math.sqrt((double) width * height / (2 * side * side)));
+        return Math.max(byWidth, byPixels);
+    }
+
+    //The method scales the image down by halving its size in several steps and doing the remaining step last
+    //Scaling in a single step with bilinear interpolation only looks at a few neighbouring pixels and gives jagged results for large factors
+
+    /**
+     *
+     * @param source
+     * @param targetWidth
+     * @return
+     */
+    static BufferedImage scaleToWidth(BufferedImage source, int targetWidth) {
+        int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * (double) targetWidth / source.getWidth()));
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+                graphics.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+
+        return current;
+    }
+
+    private void write(BufferedImage image, String format, Path target) throws IOException {
+        Path tmpFile = imageStorage.createTempFile();
+        try {
+            ImageWriter writer = ImageIO.getImageWritersBySuffix(format).next();
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(tmpFile.toFile())) {
+                writer.setOutput(out);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                if ("jpg".equals(format)) {
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(JPEG_QUALITY);
+                    param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                }
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            imageStorage.publish(tmpFile, target);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+}
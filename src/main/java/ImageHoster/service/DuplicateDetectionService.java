@@ -0,0 +1,303 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.ImageStorage;
+import ImageHoster.repository.PerceptualHashIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ */
+//The service finds uploaded pictures which are nearly the same as the picture of an existing image, e.g. the same photo resized, recompressed or slightly brightened
+//Every picture gets a 64 bit difference hash (dHash) which only depends on the rough distribution of light and dark in the picture, similar pictures have hashes differing in few bits
+//The hashes of all the images are kept in the in-memory BK-tree of PerceptualHashIndex, which finds the hashes close to a new one without comparing it with every hash
+//A near-duplicate is either flagged by setting 'duplicateOf' of the new image or rejected, depending on 'image-hoster.duplicates.action'
+//The index is built from the hashes stored with the images on startup, ImageService keeps it up to date whenever an image is uploaded, edited or deleted
+@Service
+public class DuplicateDetectionService {
+
+    private static final Logger log = LoggerFactory.getLogger(DuplicateDetectionService.class);
+
+    private static final int BUILD_BATCH_SIZE = 10000;
+
+    private static final int BACKFILL_BATCH_SIZE = 100;
+
+    //The hash is computed from a grid of 9 x 8 cells, each cell is compared with its right neighbour, giving 8 x 8 bits
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    //The picture is decoded at a low resolution, which is enough for a grid of 9 x 8 cells and much faster than decoding it completely
+    private static final int DECODE_WIDTH = 32;
+
+    //Hashes differing in at most this many of their 64 bits are considered to be the same picture
+    @Value("${image-hoster.duplicates.max-distance:4}")
+    private int maxDistance;
+
+    //'flag' stores a near-duplicate and records the image it duplicates, 'reject' refuses it
+    @Value("${image-hoster.duplicates.action:flag}")
+    private String action;
+
+    @Autowired
+    private PerceptualHashIndex perceptualHashIndex;
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    //Held while a picture is compared with the index and its hash is reserved in it, see checkAndStore()
+    private final Lock reserveLock = new ReentrantLock();
+
+    //The hashes of new images being stored are reserved in the index under negative ids, as the images only get their ids when they are stored
+    //Each reservation is completed with the id of the image once it is stored, or failed if it could not be stored
+    private final Map<Integer, CompletableFuture<Integer>> reservations = new ConcurrentHashMap<>();
+
+    private int lastReservationId;
+
+    //The method computes the perceptual hash of the stored file of the image, looks for an existing image with nearly the same picture and stores the image with the given action
+    //It sets the hash and 'duplicateOf' of the image before storing it, and then replaces the hash of the replaced image, if any, with the hash of the image in the index
+    //Only the comparison and the reservation of the hash are done under a lock, so that of two nearly identical pictures stored at the same time the second is compared with the first
+    //The picture is decoded before and the image is stored after, hence pictures which are not alike are checked and stored in parallel
+    //A picture nearly the same as one still being stored waits until that one is stored to learn its id, if it fails the picture is compared with the index again
+    //An image being edited is not compared with itself
+    //Throws DuplicateImageException if near-duplicates are rejected and one is found, the image is then not stored
+
+    /**
+     *
+     * @param image
+     * @param replaced
+     * @param store
+     */
+    public void checkAndStore(Image image, Image replaced, Runnable store) {
+        Long hash = computeHash(image.getContentHash());
+        image.setPerceptualHash(hash);
+        image.setDuplicateOf(null);
+        if (hash == null) {
+            store.run();
+            if (replaced != null) {
+                remove(replaced);
+            }
+            return;
+        }
+
+        int reservationId;
+        CompletableFuture<Integer> reservation = new CompletableFuture<>();
+        Integer closest;
+        reserveLock.lock();
+        try {
+            closest = perceptualHashIndex.findClosest(hash, maxDistance, image.getId());
+            reservationId = image.getId() != null ? image.getId() : --lastReservationId;
+            perceptualHashIndex.add(reservationId, hash);
+            reservations.put(reservationId, reservation);
+        } finally {
+            reserveLock.unlock();
+        }
+
+        try {
+            Integer duplicateOf = resolve(closest, hash, image.getId());
+            if (duplicateOf != null && "reject".equals(action)) {
+                throw new DuplicateImageException(duplicateOf);
+            }
+            image.setDuplicateOf(duplicateOf);
+            store.run();
+        } catch (RuntimeException e) {
+            perceptualHashIndex.remove(reservationId, hash);
+            //An edited image which could not be stored keeps the hash of its previous picture, which may be the same as the reserved one
+            if (replaced != null) {
+                add(replaced);
+            }
+            reservations.remove(reservationId);
+            reservation.completeExceptionally(e);
+            throw e;
+        }
+
+        if (replaced != null) {
+            remove(replaced);
+        }
+        if (reservationId < 0) {
+            perceptualHashIndex.remove(reservationId, hash);
+        }
+        add(image);
+        reservations.remove(reservationId);
+        reservation.complete(image.getId());
+    }
+
+    //The method turns the id found in the index into the id of a stored image, waiting for the new images still being stored
+    //Returns null if there is no stored image with nearly the same picture
+
+    /**
+     *
+     * @param closest
+     * @param hash
+     * @param excludedId
+     * @return
+     */
+    private Integer resolve(Integer closest, long hash, Integer excludedId) {
+        while (closest != null && closest < 0) {
+            CompletableFuture<Integer> reservation = reservations.get(closest);
+            if (reservation != null) {
+                try {
+                    return reservation.join();
+                } catch (CompletionException e) {
+                    //The failed image was removed from the index before its reservation failed, the next search does not find it again
+                }
+            }
+            closest = perceptualHashIndex.findClosest(hash, maxDistance, excludedId);
+        }
+        return closest;
+    }
+
+    //The method adds the hash of a persisted image to the index, images without a hash are skipped
+
+    /**
+     *
+     * @param image
+     */
+    public void add(Image image) {
+        if (image.getPerceptualHash() != null) {
+            perceptualHashIndex.add(image.getId(), image.getPerceptualHash());
+        }
+    }
+
+    /**
+     *
+     * @param image
+     */
+    public void remove(Image image) {
+        if (image.getPerceptualHash() != null) {
+            perceptualHashIndex.remove(image.getId(), image.getPerceptualHash());
+        }
+    }
+
+    //The method builds the index from the hashes stored with the images, reading them in batches, which does not need to decode any picture
+    //Afterwards it computes the hashes of the images which do not have one yet, e.g. because they were uploaded before the hashes were introduced
+
+    /**
+     *
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        perceptualHashIndex.clear();
+        int indexed = 0;
+        List<Object[]> hashes = imageRepository.getPerceptualHashesAfter(0, BUILD_BATCH_SIZE);
+        while (!hashes.isEmpty()) {
+            for (Object[] hash : hashes) {
+                perceptualHashIndex.add((Integer) hash[0], (Long) hash[1]);
+            }
+            indexed += hashes.size();
+            hashes = imageRepository.getPerceptualHashesAfter((Integer) hashes.get(hashes.size() - 1)[0], BUILD_BATCH_SIZE);
+        }
+        log.info("Built the perceptual hash index from {} images", indexed);
+        backfill();
+    }
+
+    //The images are walked in the order of their ids, hence an image whose file cannot be decoded is only tried once per startup
+
+    /**
+     *
+     */
+    private void backfill() {
+        int computed = 0;
+        List<Object[]> images = imageRepository.getImagesWithoutPerceptualHashAfter(0, BACKFILL_BATCH_SIZE);
+        while (!images.isEmpty()) {
+            Map<Integer, Long> hashes = new HashMap<>();
+            for (Object[] image : images) {
+                Long hash = computeHash((String) image[1]);
+                if (hash != null) {
+                    hashes.put((Integer) image[0], hash);
+                    perceptualHashIndex.add((Integer) image[0], hash);
+                }
+            }
+            imageRepository.setPerceptualHashes(hashes);
+            computed += hashes.size();
+            images = imageRepository.getImagesWithoutPerceptualHashAfter((Integer) images.get(images.size() - 1)[0], BACKFILL_BATCH_SIZE);
+        }
+        if (computed > 0) {
+            log.info("Computed the perceptual hashes of {} images", computed);
+        }
+    }
+
+    //Returns null if the file does not exist or cannot be decoded, such an image is never found as a duplicate
+
+    /**
+     *
+     * @param contentHash
+     * @return
+     */
+    private Long computeHash(String contentHash) {
+        if (contentHash == null) {
+            return null;
+        }
+        Path file = imageStorage.resolve(contentHash);
+        try {
+            BufferedImage picture = DerivativeService.readImage(file, DECODE_WIDTH);
+            return picture == null ? null : dHash(picture);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not compute the perceptual hash of {}", contentHash, e);
+            return null;
+        }
+    }
+
+    //The method computes the difference hash of the picture
+    //The picture is divided into a grid of 9 x 8 cells and the average brightness of every cell is computed
+    //Bit i of the hash is set if cell i is darker than the cell to its right, hence the hash hardly changes when the picture is scaled or its brightness or contrast is changed
+
+    /**
+     *
+     * @param picture
+     * @return
+     */
+    static long dHash(BufferedImage picture) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        long[] brightness = new long[GRID_WIDTH * GRID_HEIGHT];
+        for (int cellY = 0; cellY < GRID_HEIGHT; cellY++) {
+            int y0 = cellY * height / GRID_HEIGHT;
+            int y1 = Math.max(y0 + 1, (cellY + 1) * height / GRID_HEIGHT);
+            for (int cellX = 0; cellX < GRID_WIDTH; cellX++) {
+                int x0 = cellX * width / GRID_WIDTH;
+                int x1 = Math.max(x0 + 1, (cellX + 1) * width / GRID_WIDTH);
+                long sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        int rgb = picture.getRGB(x, y);
+                        sum += 299 * ((rgb >> 16) & 0xff) + 587 * ((rgb >> 8) & 0xff) + 114 * (rgb & 0xff);
+                    }
+                }
+                //The average brightness times 1000, the weights of the colours add up to 1000
+                brightness[cellY * GRID_WIDTH + cellX] = sum / ((long) (x1 - x0) * (y1 - y0));
+            }
+        }
+
+        long hash = 0;
+        for (int cellY = 0; cellY < GRID_HEIGHT; cellY++) {
+            for (int cellX = 0; cellX < GRID_WIDTH - 1; cellX++) {
+                hash <<= 1;
+                if (brightness[cellY * GRID_WIDTH + cellX] < brightness[cellY * GRID_WIDTH + cellX + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,24 @@
+package ImageHoster.service;
+
+/**
+ *
+ */
+//Thrown when an uploaded picture is nearly the same as the picture of an existing image and near-duplicates are rejected
+//The id of the existing image is passed on, so that the page can link to it
+public class DuplicateImageException extends RuntimeException {
+
+    private final Integer duplicateOf;
+
+    /**
+     *
+     * @param duplicateOf
+     */
+    public DuplicateImageException(Integer duplicateOf) {
+        super("The picture is nearly the same as the picture of image " + duplicateOf);
+        this.duplicateOf = duplicateOf;
+    }
+
+    public Integer getDuplicateOf() {
+        return duplicateOf;
+    }
+}
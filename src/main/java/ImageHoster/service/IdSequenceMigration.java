@@ -0,0 +1,36 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.IdSequenceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+/**
+ *
+ */
+//Before every table had its own id sequence, the ids of all tables were taken from the shared 'hibernate_sequence'
+//The new sequences are created empty by the migration V2__image_storage_schema.sql, this class moves them past the ids already stored before the application serves any request
+//The check is cheap and does nothing once the sequences are ahead of the tables, hence it runs on every start
+@Component
+public class IdSequenceMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(IdSequenceMigration.class);
+
+    @Autowired
+    private IdSequenceRepository idSequenceRepository;
+
+    /**
+     *
+     */
+    @PostConstruct
+    public void migrate() {
+        List<String> restarted = idSequenceRepository.alignSequences();
+        if (!restarted.isEmpty()) {
+            log.info("Moved the id sequences {} past the existing ids", restarted);
+        }
+    }
+}
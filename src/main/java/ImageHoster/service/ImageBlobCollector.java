@@ -0,0 +1,108 @@
+package ImageHoster.service;
+
+import ImageHoster.model.ImageBlob;
+import ImageHoster.model.StoredImage;
+import ImageHoster.repository.ImageBlobRepository;
+import ImageHoster.repository.ImageStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ *
+ */
+//Identical uploads share one file of the image storage, ImageBlobRepository counts the images pointing to every file
+//This class periodically deletes the files which no image has pointed to for the grace period, along with their smaller copies
+//The grace period covers uploads of the same bytes which have stored the file but not committed their image yet, ImageStorage touches the file for them
+@Component
+public class ImageBlobCollector {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageBlobCollector.class);
+
+    private static final int BATCH_SIZE = 100;
+
+    //Milliseconds a file stays after the last image pointing to it went away
+    @Value("${image-hoster.storage.gc-grace-period:3600000}")
+    private long gracePeriod;
+
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    //The files of the images stored before the counts were kept are registered before the application serves any request
+    //The check does nothing once every file is registered, hence it runs on every start
+
+    /**
+     *
+     */
+    @PostConstruct
+    public void registerExistingBlobs() {
+        int registered = imageBlobRepository.registerExistingBlobs();
+        if (registered > 0) {
+            log.info("Registered {} existing files of the image storage", registered);
+        }
+    }
+
+    //The method is called when a file has been stored but no image is going to point to it, e.g. because the upload was rejected
+    //The file is deleted with the other unreferenced files unless an image points to it by then
+
+    /**
+     *
+     * @param storedImage
+     */
+    public void discard(StoredImage storedImage) {
+        try {
+            imageBlobRepository.registerUnreferenced(storedImage.getHash(), storedImage.getSize());
+        } catch (RuntimeException e) {
+            log.error("Could not register the unused file {}", storedImage.getHash(), e);
+        }
+    }
+
+    //The method walks through the unreferenced files in the order of their hashes
+    //A file is only deleted after its row has been removed while it was still unreferenced, an upload pointing an image to it afterwards registers it again
+    //If the file was touched by a new upload meanwhile it is kept and registered again, the upload then counts it up
+    //Returns the number of files deleted
+
+    /**
+     *
+     * @return
+     */
+    @Scheduled(initialDelayString = "${image-hoster.storage.gc-interval:600000}", fixedDelayString = "${image-hoster.storage.gc-interval:600000}")
+    public int collect() {
+        Date cutoff = new Date(System.currentTimeMillis() - gracePeriod);
+        int deleted = 0;
+        List<ImageBlob> blobs = imageBlobRepository.getUnreferencedBlobs(cutoff, "", BATCH_SIZE);
+        while (!blobs.isEmpty()) {
+            for (ImageBlob blob : blobs) {
+                if (!imageBlobRepository.removeIfUnreferenced(blob.getContentHash())) {
+                    continue;
+                }
+                try {
+                    if (imageStorage.deleteIfUnusedSince(blob.getContentHash(), cutoff.getTime())) {
+                        deleted++;
+                    } else {
+                        imageBlobRepository.registerUnreferenced(blob.getContentHash(), blob.getSize());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.error("Could not delete the unused file {}", blob.getContentHash(), e);
+                    imageBlobRepository.registerUnreferenced(blob.getContentHash(), blob.getSize());
+                }
+            }
+            blobs = imageBlobRepository.getUnreferencedBlobs(cutoff, blobs.get(blobs.size() - 1).getContentHash(), BATCH_SIZE);
+        }
+        if (deleted > 0) {
+            log.info("Deleted {} files no image points to", deleted);
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,154 @@
+package ImageHoster.service;
+
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.ImageSearchIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ */
+//The service searches the images by the words of their titles, descriptions and tags using the full-text index
+//ImageService keeps the index up to date whenever an image is uploaded, edited or deleted
+//The index is rebuilt from the database on startup when it does not hold the same number of images as the database, e.g. after a crash or on a new server
+@Service
+public class ImageSearchService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageSearchService.class);
+
+    private static final int REBUILD_BATCH_SIZE = 500;
+
+    @Value("${image-hoster.search.page-size:20}")
+    private int defaultPageSize;
+
+    @Value("${image-hoster.search.max-page-size:100}")
+    private int maxPageSize;
+
+    //Results beyond this position are not shown, collecting the best matches gets more expensive the further a page is from the first one
+    @Value("${image-hoster.search.max-results:1000}")
+    private int maxResults;
+
+    @Value("${image-hoster.search.rebuild-on-startup:false}")
+    private boolean rebuildOnStartup;
+
+    @Autowired
+    private ImageSearchIndex searchIndex;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    //The method returns one page of the images matching the text, best match first
+    //'page' is the number of the page starting with 0, the 'next' and 'previous' cursors of the returned page are the numbers of the neighbouring pages
+    //One more image than the page size is fetched to know whether there is a next page
+    //Pages beyond 'image-hoster.search.max-results' are empty, the page number is limited first so that the offset cannot overflow
+
+    /**
+     *
+     * @param text
+     * @param page
+     * @param size
+     * @return
+     */
+    public CursorPage<ImageSummary> search(String text, Integer page, Integer size) {
+        int pageSize = size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+        int pageNumber = page == null ? 0 : Math.max(0, Math.min(page, maxResults / pageSize));
+        int offset = pageNumber * pageSize;
+        if (text == null || text.trim().isEmpty() || offset >= maxResults) {
+            return new CursorPage<>(Collections.emptyList(), null, null);
+        }
+
+        List<ImageSummary> images;
+        try {
+            images = searchIndex.search(text, offset, Math.min(pageSize + 1, maxResults - offset));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not search the images", e);
+        }
+        boolean hasNext = images.size() > pageSize;
+        images = images.subList(0, Math.min(images.size(), pageSize));
+        String next = hasNext ? Integer.toString(pageNumber + 1) : null;
+        String previous = pageNumber > 0 ? Integer.toString(pageNumber - 1) : null;
+        return new CursorPage<>(images, next, previous);
+    }
+
+    //The method adds the image to the index or updates its entry
+    //The image is already stored in the database, hence a failure is only logged. The image is found again after the index has been rebuilt
+
+    /**
+     *
+     * @param image
+     */
+    public void index(Image image) {
+        try {
+            searchIndex.index(image);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not add image {} to the search index", image.getId(), e);
+        }
+    }
+
+    /**
+     *
+     * @param imageId
+     */
+    public void remove(Integer imageId) {
+        try {
+            searchIndex.remove(imageId);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not remove image {} from the search index", imageId, e);
+        }
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfNeeded() throws IOException {
+        if (rebuildOnStartup || searchIndex.getImageCount() != imageRepository.countImages()) {
+            rebuild();
+        }
+    }
+
+    //The method empties the index and adds all the images of the database again, reading them in batches of their ids
+
+    /**
+     *
+     * @throws IOException
+     */
+    public void rebuild() throws IOException {
+        searchIndex.clear();
+        int indexed = 0;
+        List<Image> images = imageRepository.getImagesWithTagsAfter(0, REBUILD_BATCH_SIZE);
+        while (!images.isEmpty()) {
+            searchIndex.add(images);
+            indexed += images.size();
+            images = imageRepository.getImagesWithTagsAfter(images.get(images.size() - 1).getId(), REBUILD_BATCH_SIZE);
+        }
+        searchIndex.commit();
+        searchIndex.refresh();
+        log.info("Rebuilt the search index with {} images", indexed);
+    }
+
+    //Periodically writes the changes of the index to disk, the changes of the last interval are lost if the application is killed
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Scheduled(fixedDelayString = "${image-hoster.search.commit-interval:60000}")
+    public void commit() throws IOException {
+        searchIndex.commit();
+    }
+}
@@ -1,12 +1,22 @@
 package ImageHoster.service;
 
-import ImageHoster.model.Comment;
+import ImageHoster.model.CursorPage;
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageCursor;
+import ImageHoster.model.ImageFile;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.StoredImage;
 import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.ImageStorage;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDate;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 /**
  *
@@ -16,18 +26,73 @@ public class ImageService {
     @Autowired
     private ImageRepository imageRepository;
 
-    //Call the getAllImages() method in the Repository and obtain a List of all the images in the database
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    private DerivativeService derivativeService;
+
+    @Autowired
+    private ImageSearchService imageSearchService;
+
+    @Autowired
+    private TagBrowsingService tagBrowsingService;
+
+    @Autowired
+    private DuplicateDetectionService duplicateDetectionService;
+
+    @Autowired
+    private ImageBlobCollector imageBlobCollector;
+
+    @Value("${image-hoster.gallery.page-size:20}")
+    private int defaultPageSize;
+
+    @Value("${image-hoster.gallery.max-page-size:100}")
+    private int maxPageSize;
+
+    //Uploads larger than this many bytes are refused
+    @Value("${image-hoster.uploads.max-size:20971520}")
+    private long maxUploadSize;
+
+    //The method returns one page of the summaries of the images, newest first
+    //'after' and 'before' are the cursors of the page from which the user navigates to the next or the previous page, both are null for the first page
+    //One more image than the page size is fetched to know whether there is a page after this one
 
     /**
      *
+     * @param after
+     * @param before
+     * @param size
      * @return
      */
-    public List<Image> getAllImages() {
-        return imageRepository.getAllImages();
+    public CursorPage<ImageSummary> getImagePage(String after, String before, Integer size) {
+        int pageSize = size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+
+        ImageCursor beforeCursor = ImageCursor.decode(before);
+        if (beforeCursor != null) {
+            List<ImageSummary> images = imageRepository.getImagesBefore(beforeCursor, pageSize + 1);
+            boolean hasPrevious = images.size() > pageSize;
+            images = new ArrayList<>(images.subList(0, Math.min(images.size(), pageSize)));
+            Collections.reverse(images);
+            if (images.isEmpty()) {
+                return getImagePage(null, null, size);
+            }
+            return new CursorPage<>(images, ImageCursor.of(images.get(images.size() - 1)).encode(),
+                    hasPrevious ? ImageCursor.of(images.get(0)).encode() : null);
+        }
+
+        ImageCursor afterCursor = ImageCursor.decode(after);
+        List<ImageSummary> images = imageRepository.getImagesAfter(afterCursor, pageSize + 1);
+        boolean hasNext = images.size() > pageSize;
+        images = images.subList(0, Math.min(images.size(), pageSize));
+        String next = hasNext ? ImageCursor.of(images.get(images.size() - 1)).encode() : null;
+        String previous = afterCursor != null && !images.isEmpty() ? ImageCursor.of(images.get(0)).encode() : null;
+        return new CursorPage<>(images, next, previous);
     }
 
 
     //The method calls the createImage() method in the Repository and passes the image to be persisted in the database
+    //Once stored, the image is added to the search index and the index of the images of its tags
 
     /**
      *
@@ -35,6 +100,32 @@ public class ImageService {
      */
     public void uploadImage(Image image) {
         imageRepository.uploadImage(image);
+        imageSearchService.index(image);
+        tagBrowsingService.index(image);
+    }
+
+    //The method writes the bytes of the image to the image storage, sets the hash and size of the stored file in the image and then persists the image in the database
+    //Throws InvalidImageException if the bytes are not an image of a supported format or too large
+    //Before persisting, the picture is compared with the pictures of the existing images, a near-duplicate is flagged or rejected with DuplicateImageException
+    //Identical bytes uploaded before are not stored again, the image points to the existing file. If the image is not persisted, the file is left to ImageBlobCollector
+
+    /**
+     *
+     * @param image
+     * @param imageData
+     * @throws IOException
+     */
+    public void uploadImage(Image image, InputStream imageData) throws IOException {
+        StoredImage storedImage = storeImageFile(image, imageData);
+        try {
+            duplicateDetectionService.checkAndStore(image, null, () -> imageRepository.uploadImage(image));
+        } catch (RuntimeException e) {
+            imageBlobCollector.discard(storedImage);
+            throw e;
+        }
+        imageSearchService.index(image);
+        tagBrowsingService.index(image);
+        derivativeService.submit(image.getContentHash());
     }
 
 
@@ -49,15 +140,36 @@ public class ImageService {
         return imageRepository.getImageByTitle(id);
     }
 
+    //The method calls the getImageById() method in the Repository which fetches only the image itself without its comments
+
     /**
      *
      * @param id
-     * @param comment
+     * @return
+     */
+    public Image getImageById(Integer id) {
+        return imageRepository.getImageById(id);
+    }
+
+    //The method returns the file in the image storage to be sent for the image
+    //If a width is given and a derivative with that width exists, the derivative is returned, else the original file of the image
+
+    /**
+     *
+     * @param image
+     * @param width
+     * @return
      */
-    public void saveCommentOfImage(Integer id, Comment comment) {
-        LocalDate createdDate = LocalDate.now();
-        comment.setCreatedDate(createdDate);
-        imageRepository.saveCommentOfImage(id, comment);
+    public ImageFile getImageFile(Image image, Integer width) {
+        if (width != null) {
+            Path derivative = derivativeService.findDerivative(image.getContentHash(), width);
+            if (derivative != null) {
+                String contentType = derivative.toString().endsWith(".png") ? "image/png" : "image/jpeg";
+                return new ImageFile(derivative, contentType, image.getContentHash() + "-w" + width, true);
+            }
+        }
+        Path original = imageStorage.resolve(image.getContentHash());
+        return new ImageFile(original, image.getContentType(), image.getContentHash(), width == null);
     }
 
     //The method calls the getImage() method in the Repository and passes the id of the image to be fetched
@@ -73,6 +185,7 @@ public class ImageService {
     }
 
     //The method calls the updateImage() method in the Repository and passes the Image to be updated in the database
+    //The entry of the image in the search index is replaced with the new title, description and tags, and the image is moved to its new tags in the tag index
 
     /**
      *
@@ -80,9 +193,54 @@ public class ImageService {
      */
     public void updateImage(Image updatedImage) {
         imageRepository.updateImage(updatedImage);
+        imageSearchService.index(updatedImage);
+        tagBrowsingService.index(updatedImage);
+    }
+
+    //The method updates only the title, description, date and tags of the image, the file and the columns describing it are left as they are
+    //Returns the updated image, or null if the user does not own an image with that id
+
+    /**
+     *
+     * @param updatedImage
+     * @param userId
+     * @return
+     */
+    public Image updateImageDetails(Image updatedImage, Integer userId) {
+        Image image = imageRepository.updateImageDetails(updatedImage, userId);
+        if (image != null) {
+            imageSearchService.index(image);
+            tagBrowsingService.index(image);
+        }
+        return image;
+    }
+
+    //The method writes the new bytes of the image to the image storage before updating the image in the database
+    //Throws InvalidImageException if the bytes are not an image of a supported format or too large
+    //The new picture is checked for near-duplicates like an uploaded one, and its perceptual hash replaces the hash of the previous picture in the index
+
+    /**
+     *
+     * @param updatedImage
+     * @param imageData
+     * @throws IOException
+     */
+    public void updateImage(Image updatedImage, InputStream imageData) throws IOException {
+        Image previousImage = imageRepository.getImageById(updatedImage.getId());
+        StoredImage storedImage = storeImageFile(updatedImage, imageData);
+        try {
+            duplicateDetectionService.checkAndStore(updatedImage, previousImage, () -> imageRepository.updateImage(updatedImage));
+        } catch (RuntimeException e) {
+            imageBlobCollector.discard(storedImage);
+            throw e;
+        }
+        imageSearchService.index(updatedImage);
+        tagBrowsingService.index(updatedImage);
+        derivativeService.submit(updatedImage.getContentHash());
     }
 
     //The method calls the deleteImage() method in the Repository and passes the Image id of the image to be deleted in the database
+    //A deleted image is also removed from the search index, the tag index and the index of the perceptual hashes
 
     /**
      *
@@ -91,7 +249,49 @@ public class ImageService {
      * @return
      */
     public Image deleteImage(Integer imageId, Integer userId) {
-        return imageRepository.deleteImage(imageId, userId);
+        List<Image> images = deleteImages(Collections.singletonList(imageId), userId);
+        return images.isEmpty() ? null : images.get(0);
+    }
+
+    //The method deletes the images with the given ids which the user owns in one transaction, the ids of images of other users are ignored
+    //The files of the images are not deleted here, ImageBlobCollector deletes them in the background once no image points to them anymore
+    //Returns the deleted images
+
+    /**
+     *
+     * @param imageIds
+     * @param userId
+     * @return
+     */
+    public List<Image> deleteImages(List<Integer> imageIds, Integer userId) {
+        List<Image> images = imageRepository.deleteImages(imageIds, userId);
+        for (Image image : images) {
+            imageSearchService.remove(image.getId());
+            tagBrowsingService.remove(image.getId());
+            duplicateDetectionService.remove(image);
+        }
+        return images;
+    }
+
+    //The bytes are streamed to the image storage in fixed size chunks, checking the format and the size of the image on the way
+    //Hence an upload only takes a small buffer of memory whatever its size, and an invalid one is refused without storing anything
+    //The type of the image is taken from its first bytes
+
+    /**
+     *
+     * @param image
+     * @param imageData
+     * @return
+     * @throws IOException
+     */
+    private StoredImage storeImageFile(Image image, InputStream imageData) throws IOException {
+        ImageUploadStream upload = new ImageUploadStream(imageData, maxUploadSize);
+        StoredImage storedImage = imageStorage.store(upload);
+        image.setContentType(upload.getContentType());
+        image.setContentHash(storedImage.getHash());
+        image.setSize(storedImage.getSize());
+        image.setDerivativesReady(false);
+        return storedImage;
     }
 
 }
@@ -0,0 +1,144 @@
+package ImageHoster.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ *
+ */
+//The stream passes the bytes of an upload through to ImageStorage while checking them, without holding more than a few bytes itself
+//The first bytes of the file have to be the signature (magic bytes) of a supported image format, the type of the image is taken from them instead of from what the browser claims
+//Reading fails with InvalidImageException as soon as the signature is wrong or more than 'maxSize' bytes have been read, hence a too large upload is never read to its end
+public class ImageUploadStream extends FilterInputStream {
+
+    //Long enough for the longest signature checked, the 12 bytes of "RIFF....WEBP"
+    private static final int HEADER_LENGTH = 12;
+
+    private final long maxSize;
+
+    private final byte[] header = new byte[HEADER_LENGTH];
+
+    //Number of bytes of the header, which may be shorter than HEADER_LENGTH for a tiny file, and the number of them handed out so far
+    private int headerLength = -1;
+    private int headerPosition;
+
+    private long count;
+
+    private String contentType;
+
+    /**
+     *
+     * @param in
+     * @param maxSize
+     */
+    public ImageUploadStream(InputStream in, long maxSize) {
+        super(in);
+        this.maxSize = maxSize;
+    }
+
+    //Returns the type of the image recognized from its first bytes, null before anything has been read
+
+    /**
+     *
+     * @return
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (headerLength < 0) {
+            readHeader();
+        }
+        if (length == 0) {
+            return 0;
+        }
+
+        int read;
+        if (headerPosition < headerLength) {
+            read = Math.min(length, headerLength - headerPosition);
+            System.arraycopy(header, headerPosition, buffer, offset, read);
+            headerPosition += read;
+        } else {
+            read = in.read(buffer, offset, length);
+            if (read == -1) {
+                return -1;
+            }
+        }
+        count += read;
+        if (count > maxSize) {
+            throw new InvalidImageException("The image is larger than " + maxSize + " bytes");
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        throw new IOException("Skipping is not supported");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void readHeader() throws IOException {
+        headerLength = 0;
+        int read;
+        while (headerLength < HEADER_LENGTH && (read = in.read(header, headerLength, HEADER_LENGTH - headerLength)) != -1) {
+            headerLength += read;
+        }
+        contentType = detectContentType(header, headerLength);
+        if (contentType == null) {
+            throw new InvalidImageException("The file is not a JPEG, PNG, GIF, WebP or BMP image");
+        }
+    }
+
+    //The method returns the type of the image with the given first bytes, or null if they are not the signature of a supported format
+
+    /**
+     *
+     * @param header
+     * @param length
+     * @return
+     */
+    static String detectContentType(byte[] header, int length) {
+        if (startsWith(header, length, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(header, length, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (startsWith(header, length, 0, 'G', 'I', 'F', '8', '7', 'a') || startsWith(header, length, 0, 'G', 'I', 'F', '8', '9', 'a')) {
+            return "image/gif";
+        }
+        if (startsWith(header, length, 0, 'R', 'I', 'F', 'F') && startsWith(header, length, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        if (startsWith(header, length, 0, 'B', 'M') && length >= 6) {
+            return "image/bmp";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] header, int length, int offset, int... signature) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[offset + i] & 0xff) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,19 @@
+package ImageHoster.service;
+
+import java.io.IOException;
+
+/**
+ *
+ */
+//Thrown while an upload is being read, as soon as it turns out not to be an image of a supported format or to be larger than allowed
+//Nothing of the upload is kept, the partially written file is discarded by ImageStorage
+public class InvalidImageException extends IOException {
+
+    /**
+     *
+     * @param message
+     */
+    public InvalidImageException(String message) {
+        super(message);
+    }
+}
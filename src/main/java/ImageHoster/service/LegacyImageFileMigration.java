@@ -0,0 +1,96 @@
+package ImageHoster.service;
+
+import ImageHoster.model.StoredImage;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.ImageStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ *
+ */
+//Before the image storage existed, the bytes of every image were saved as a Base64 string in the 'imagefile' column of the 'images' table
+//Once the application has started, this class moves those bytes to the image storage in small batches and clears the column
+//The migrations keep the 'imagefile' column for this class, it stays empty in databases created after the image storage was introduced
+@Component
+public class LegacyImageFileMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(LegacyImageFileMigration.class);
+
+    private static final int BATCH_SIZE = 20;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    /**
+     *
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        List<Integer> ids;
+        try {
+            ids = imageRepository.getLegacyImageIds(BATCH_SIZE);
+        } catch (DataAccessException e) {
+            log.debug("No legacy image files to migrate", e);
+            return;
+        }
+
+        int migrated = 0;
+        while (!ids.isEmpty()) {
+            for (Integer id : ids) {
+                try {
+                    if (!migrateImage(id)) {
+                        log.error("Could not update image {} after moving its file to the image storage", id);
+                        return;
+                    }
+                    migrated++;
+                } catch (IOException | RuntimeException e) {
+                    log.error("Could not move the image file of image {} to the image storage", id, e);
+                    return;
+                }
+            }
+            ids = imageRepository.getLegacyImageIds(BATCH_SIZE);
+        }
+
+        if (migrated > 0) {
+            log.info("Moved {} legacy image files to the image storage", migrated);
+        }
+    }
+
+    private boolean migrateImage(Integer id) throws IOException {
+        String imageFile = imageRepository.getLegacyImageFile(id);
+        byte[] encoded = imageFile.getBytes(StandardCharsets.US_ASCII);
+
+        String contentType;
+        try (InputStream in = new BufferedInputStream(Base64.getMimeDecoder().wrap(new ByteArrayInputStream(encoded)))) {
+            contentType = URLConnection.guessContentTypeFromStream(in);
+        }
+        //The images were always rendered as JPEG before, which is the best guess when the type cannot be recognized
+        if (contentType == null) {
+            contentType = "image/jpeg";
+        }
+
+        StoredImage storedImage;
+        try (InputStream in = Base64.getMimeDecoder().wrap(new ByteArrayInputStream(encoded))) {
+            storedImage = imageStorage.store(in);
+        }
+        return imageRepository.completeLegacyImageMigration(id, storedImage, contentType);
+    }
+}
@@ -0,0 +1,154 @@
+package ImageHoster.service;
+
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.Tag;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.TagImageIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ */
+//The service lists the images having one or more tags, newest first
+//The ids of the matching images come from the in-memory index of the images of every tag, only the ids of the page shown are looked up in the database
+//The index is built from the database on startup, ImageService keeps it up to date whenever an image is uploaded, edited or deleted
+@Service
+public class TagBrowsingService {
+
+    private static final Logger log = LoggerFactory.getLogger(TagBrowsingService.class);
+
+    private static final int BUILD_BATCH_SIZE = 10000;
+
+    @Value("${image-hoster.gallery.page-size:20}")
+    private int defaultPageSize;
+
+    @Value("${image-hoster.gallery.max-page-size:100}")
+    private int maxPageSize;
+
+    @Value("${image-hoster.tags.max-tags-per-query:10}")
+    private int maxTags;
+
+    @Autowired
+    private TagImageIndex tagImageIndex;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private TagSuggestionService tagSuggestionService;
+
+    //The method returns one page of the images having all (or, if 'matchAll' is false, any) of the tags
+    //The images are ordered by their ids, the highest first, since the ids are handed out in ascending order this is roughly the newest image first
+    //'after' is the cursor of the page from which the user loads the next page, i.e. the id of the last image of that page, it is null for the first page
+    //One more id than the page size is taken from the index to know whether there is a next page
+
+    /**
+     *
+     * @param tagNames
+     * @param matchAll
+     * @param after
+     * @param size
+     * @return
+     */
+    public CursorPage<ImageSummary> getImagePage(Collection<String> tagNames, boolean matchAll, String after, Integer size) {
+        int pageSize = size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+        Set<String> names = new LinkedHashSet<>();
+        for (String tagName : tagNames) {
+            String name = TagService.normalize(tagName);
+            if (!name.isEmpty() && names.size() < maxTags) {
+                names.add(name);
+            }
+        }
+
+        List<Integer> ids = tagImageIndex.getImageIds(names, matchAll, decodeCursor(after), pageSize + 1);
+        boolean hasNext = ids.size() > pageSize;
+        ids = ids.subList(0, Math.min(ids.size(), pageSize));
+        String next = hasNext ? ids.get(ids.size() - 1).toString() : null;
+        return new CursorPage<>(imageRepository.getImageSummaries(ids), next, null);
+    }
+
+    //The method sets the tags of the image in the index
+    //The number of images of the tags the image was added to or removed from is passed on to the tag suggestions
+    //The names are normalized like the names searched for in getImagePage(), so that tags stored with other letter cases are found as well
+
+    /**
+     *
+     * @param image
+     */
+    public void index(Image image) {
+        List<String> tagNames = new ArrayList<>();
+        if (image.getTags() != null) {
+            for (Tag tag : image.getTags()) {
+                tagNames.add(TagService.normalize(tag.getName()));
+            }
+        }
+        Set<String> changed = tagImageIndex.replace(image.getId(), tagNames);
+        changed.addAll(tagNames);
+        updateCounts(changed);
+    }
+
+    /**
+     *
+     * @param imageId
+     */
+    public void remove(Integer imageId) {
+        updateCounts(tagImageIndex.remove(imageId));
+    }
+
+    //The method builds the index from the join table between the images and the tags, reading it in batches
+
+    /**
+     *
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        tagImageIndex.clear();
+        int rows = 0;
+        List<Object[]> imageTags = imageRepository.getImageTagsAfter(0, 0, BUILD_BATCH_SIZE);
+        while (!imageTags.isEmpty()) {
+            for (Object[] imageTag : imageTags) {
+                tagImageIndex.add((Integer) imageTag[0], TagService.normalize((String) imageTag[2]));
+            }
+            rows += imageTags.size();
+            Object[] last = imageTags.get(imageTags.size() - 1);
+            imageTags = imageRepository.getImageTagsAfter((Integer) last[0], (Integer) last[1], BUILD_BATCH_SIZE);
+        }
+        tagImageIndex.optimize();
+        log.info("Built the tag index from {} tags of images", rows);
+    }
+
+    private void updateCounts(Set<String> tagNames) {
+        Map<String, Long> counts = new HashMap<>();
+        for (String tagName : tagNames) {
+            counts.put(tagName, tagImageIndex.getImageCount(tagName));
+        }
+        tagSuggestionService.updateCounts(counts);
+    }
+
+    private static Integer decodeCursor(String after) {
+        if (after == null || after.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(after);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -4,6 +4,11 @@ import ImageHoster.model.Tag;
 import ImageHoster.repository.TagRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
 
 /**
  *
@@ -13,6 +18,9 @@ public class TagService {
     @Autowired
     private TagRepository tagRepository;
 
+    @Autowired
+    private TagSuggestionService tagSuggestionService;
+
     /**
      *
      * @param title
@@ -22,12 +30,90 @@ public class TagService {
         return tagRepository.findTag(title);
     }
 
+    //The method normalizes the name of the new tag, persists the tag and adds it to the tag suggestions
+
     /**
      *
      * @param tag
      * @return
      */
     public Tag createTag(Tag tag) {
-        return tagRepository.createTag(tag);
+        tag.setName(normalize(tag.getName()));
+        Tag created = tagRepository.createTag(tag);
+        addSuggestionsAfterCommit(Collections.singletonList(created.getName()));
+        return created;
+    }
+
+    //The method returns the tags with the given names, creating the ones which do not exist yet
+    //The names are normalized first, i.e. trimmed, lower-cased and with inner whitespace collapsed, and empty or repeated names are dropped
+    //The existing tags are fetched with one query and the missing ones are inserted with one statement, so the cost does not grow with the number of tags
+    //Tags created concurrently by another upload are picked up by fetching the missing names once more after the insert
+    //The created tags are added to the tag suggestions once the transaction has committed
+    //Returns the tags in the order of their first occurrence in the given names
+
+    /**
+     *
+     * @param tagNames
+     * @return
+     */
+    @Transactional
+    public List<Tag> resolveTags(Collection<String> tagNames) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String tagName : tagNames) {
+            String name = normalize(tagName);
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        if (names.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<String, Tag> tags = new HashMap<>();
+        for (Tag tag : tagRepository.findTags(names)) {
+            tags.put(tag.getName(), tag);
+        }
+
+        Set<String> missing = new LinkedHashSet<>(names);
+        missing.removeAll(tags.keySet());
+        if (!missing.isEmpty()) {
+            tagRepository.insertTags(missing);
+            addSuggestionsAfterCommit(missing);
+            for (Tag tag : tagRepository.findTags(missing)) {
+                tags.put(tag.getName(), tag);
+            }
+        }
+
+        List<Tag> resolved = new ArrayList<>();
+        for (String name : names) {
+            resolved.add(tags.get(name));
+        }
+        return resolved;
+    }
+
+    //A rolled back transaction leaves no tags behind, hence they are only suggested after the commit
+    //Without a transaction the tags are already stored and are suggested at once
+    private void addSuggestionsAfterCommit(Collection<String> tagNames) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            tagSuggestionService.addTags(tagNames);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                tagSuggestionService.addTags(tagNames);
+            }
+        });
+    }
+
+    //The names are stored lower-cased, tags created before the names were normalized are lower-cased by the migration V3__normalize_tag_names.sql
+
+    /**
+     *
+     * @param tagName
+     * @return
+     */
+    static String normalize(String tagName) {
+        return tagName.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
     }
 }
@@ -0,0 +1,100 @@
+package ImageHoster.service;
+
+import ImageHoster.model.TagSuggestion;
+import ImageHoster.repository.TagRepository;
+import ImageHoster.repository.TagSuggestionIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ *
+ */
+//The service proposes existing tags while the user types the tags of an image, so that the same tag is not created again under a slightly different name
+//The suggestions come from the in-memory trie of all the tag names, typing never goes to the database
+//The trie is built from the database on startup, new tags are added by TagService and the counts are kept up to date by TagBrowsingService
+@Service
+public class TagSuggestionService {
+
+    private static final Logger log = LoggerFactory.getLogger(TagSuggestionService.class);
+
+    private static final int BUILD_BATCH_SIZE = 10000;
+
+    @Value("${image-hoster.tags.max-suggestions:10}")
+    private int maxSuggestions;
+
+    @Autowired
+    private TagSuggestionIndex tagSuggestionIndex;
+
+    @Autowired
+    private TagRepository tagRepository;
+
+    //The method returns the most used tags starting with the prefix, at most 'limit' or 'image-hoster.tags.max-suggestions' of them
+    //The prefix is normalized like the tag names, an empty prefix gives the most used tags overall
+
+    /**
+     *
+     * @param prefix
+     * @param limit
+     * @return
+     */
+    public List<TagSuggestion> suggest(String prefix, Integer limit) {
+        int count = limit == null ? maxSuggestions : Math.max(1, Math.min(limit, maxSuggestions));
+        //Unlike the tag names a trailing space is kept, the user may be typing the second word of a tag
+        String normalized = prefix == null ? "" : prefix.replaceAll("^\\s+", "").replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return tagSuggestionIndex.suggest(normalized, count);
+    }
+
+    //The method adds the tags which are not known yet, with no images
+
+    /**
+     *
+     * @param tagNames
+     */
+    public void addTags(Collection<String> tagNames) {
+        for (String tagName : tagNames) {
+            tagSuggestionIndex.putIfAbsent(TagService.normalize(tagName));
+        }
+    }
+
+    //The method sets the number of images of the tags
+
+    /**
+     *
+     * @param counts
+     */
+    public void updateCounts(Map<String, Long> counts) {
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            tagSuggestionIndex.put(TagService.normalize(count.getKey()), count.getValue());
+        }
+    }
+
+    //The method builds the trie from the tags of the database, reading them in batches along with their number of images
+
+    /**
+     *
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        tagSuggestionIndex.clear();
+        int tags = 0;
+        List<Object[]> usage = tagRepository.getTagUsageAfter(0, BUILD_BATCH_SIZE);
+        while (!usage.isEmpty()) {
+            for (Object[] tag : usage) {
+                tagSuggestionIndex.put(TagService.normalize((String) tag[1]), ((Number) tag[2]).longValue());
+            }
+            tags += usage.size();
+            usage = tagRepository.getTagUsageAfter((Integer) usage.get(usage.size() - 1)[0], BUILD_BATCH_SIZE);
+        }
+        log.info("Built the tag suggestions from {} tags", tags);
+    }
+}
@@ -0,0 +1,58 @@
+-- The schema as Hibernate created it before the image storage was introduced, the bytes of the images were kept in 'imagefile'
+-- Existing databases are baselined at this version (spring.flyway.baseline-on-migrate), so this script only runs on an empty database
+-- Every later change of the schema is made by the following migrations, which therefore also run on the existing databases
+
+CREATE SEQUENCE hibernate_sequence START WITH 1 INCREMENT BY 1;
+
+CREATE TABLE user_profile (
+    id            INT4 NOT NULL,
+    email_address VARCHAR(255),
+    full_name     VARCHAR(255),
+    mobile_number VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE users (
+    id         INT4 NOT NULL,
+    password   VARCHAR(255),
+    username   VARCHAR(255),
+    profile_id INT4,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE images (
+    id          INT4 NOT NULL,
+    date        TIMESTAMP,
+    description VARCHAR(255),
+    imagefile   TEXT,
+    title       VARCHAR(255),
+    user_id     INT4,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE tags (
+    id   INT4 NOT NULL,
+    name VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE images_tags (
+    images_id INT4 NOT NULL,
+    tags_id   INT4 NOT NULL
+);
+
+CREATE TABLE comment (
+    comment_id INT4 NOT NULL,
+    timestamp  DATE,
+    text       VARCHAR(256),
+    image_id   INT4,
+    user_id    INT4,
+    PRIMARY KEY (comment_id)
+);
+
+ALTER TABLE comment ADD CONSTRAINT FKbca0ka40npa5xylj6mml6ulnw FOREIGN KEY (image_id) REFERENCES images (id);
+ALTER TABLE comment ADD CONSTRAINT FKqm52p1v3o13hy268he0wcngr5 FOREIGN KEY (user_id) REFERENCES users (id);
+ALTER TABLE images ADD CONSTRAINT FK13ljqfrfwbyvnsdhihwta8cpr FOREIGN KEY (user_id) REFERENCES users (id);
+ALTER TABLE images_tags ADD CONSTRAINT FKtr5ixprfwwbq8u50gj470tkgv FOREIGN KEY (tags_id) REFERENCES tags (id);
+ALTER TABLE images_tags ADD CONSTRAINT FKgsj11feci341byyrilwywpe47 FOREIGN KEY (images_id) REFERENCES images (id);
+ALTER TABLE users ADD CONSTRAINT FKo47sw84ajr24vfq4ccoha1256 FOREIGN KEY (profile_id) REFERENCES user_profile (id);
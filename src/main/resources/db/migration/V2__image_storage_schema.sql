@@ -0,0 +1,24 @@
+-- The columns, tables and sequences added along with the image storage, the file reference counts and the per table id sequences
+-- 'imagefile' is kept, LegacyImageFileMigration moves its bytes to the image storage once the application has started
+-- 'hibernate_sequence' is kept as well, IdSequenceMigration moves the new sequences past the ids it handed out
+
+ALTER TABLE images ADD COLUMN content_hash VARCHAR(64);
+ALTER TABLE images ADD COLUMN content_type VARCHAR(100);
+ALTER TABLE images ADD COLUMN size INT8;
+ALTER TABLE images ADD COLUMN derivatives_ready BOOLEAN;
+ALTER TABLE images ADD COLUMN perceptual_hash INT8;
+ALTER TABLE images ADD COLUMN duplicate_of INT4;
+
+CREATE TABLE image_blobs (
+    content_hash VARCHAR(64) NOT NULL,
+    ref_count    INT4        NOT NULL,
+    released_at  TIMESTAMP,
+    size         INT8,
+    PRIMARY KEY (content_hash)
+);
+
+CREATE SEQUENCE comment_id_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE images_id_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE tags_id_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE user_profile_id_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE users_id_seq START WITH 1 INCREMENT BY 50;
@@ -0,0 +1,37 @@
+-- Tag names are looked up by their normalized form, i.e. with every run of whitespace replaced by a space, trimmed and lower-cased, see TagService.normalize()
+-- Tags created before the names were normalized may differ from it, e.g. "Black  Dog", and may even exist next to their normalized form, e.g. "black dog"
+-- Tags whose normalized names are the same are merged into the one with the smallest id, then every name is normalized
+-- Once the names are unique they get the constraint TagRepository relies on to create tags concurrently, see Tag
+
+-- A tag without a name, or with whitespace only, cannot be shown nor looked up, it is dropped with its links
+DELETE FROM images_tags WHERE tags_id IN (SELECT id FROM tags WHERE name IS NULL OR LOWER(TRIM(REGEXP_REPLACE(name, '\s+', ' ', 'g'))) = '');
+DELETE FROM tags WHERE name IS NULL OR LOWER(TRIM(REGEXP_REPLACE(name, '\s+', ' ', 'g'))) = '';
+
+-- An image linked to several tags being merged keeps the link to the tag with the smallest id only
+DELETE FROM images_tags
+WHERE EXISTS (SELECT 1
+              FROM images_tags other
+                       JOIN tags other_tag ON other_tag.id = other.tags_id
+                       JOIN tags tag ON tag.id = images_tags.tags_id
+              WHERE other.images_id = images_tags.images_id
+                AND LOWER(TRIM(REGEXP_REPLACE(other_tag.name, '\s+', ' ', 'g'))) = LOWER(TRIM(REGEXP_REPLACE(tag.name, '\s+', ' ', 'g')))
+                AND other.tags_id < images_tags.tags_id);
+
+UPDATE images_tags
+SET tags_id = (SELECT MIN(kept.id)
+               FROM tags kept
+                        JOIN tags tag ON LOWER(TRIM(REGEXP_REPLACE(kept.name, '\s+', ' ', 'g'))) = LOWER(TRIM(REGEXP_REPLACE(tag.name, '\s+', ' ', 'g')))
+               WHERE tag.id = images_tags.tags_id)
+WHERE EXISTS (SELECT 1
+              FROM tags kept
+                       JOIN tags tag ON LOWER(TRIM(REGEXP_REPLACE(kept.name, '\s+', ' ', 'g'))) = LOWER(TRIM(REGEXP_REPLACE(tag.name, '\s+', ' ', 'g')))
+              WHERE tag.id = images_tags.tags_id
+                AND kept.id < tag.id);
+
+DELETE FROM tags
+WHERE EXISTS (SELECT 1 FROM tags kept WHERE LOWER(TRIM(REGEXP_REPLACE(kept.name, '\s+', ' ', 'g'))) = LOWER(TRIM(REGEXP_REPLACE(tags.name, '\s+', ' ', 'g'))) AND kept.id < tags.id);
+
+UPDATE tags SET name = LOWER(TRIM(REGEXP_REPLACE(name, '\s+', ' ', 'g'))) WHERE name <> LOWER(TRIM(REGEXP_REPLACE(name, '\s+', ' ', 'g')));
+
+ALTER TABLE tags ALTER COLUMN name SET NOT NULL;
+ALTER TABLE tags ADD CONSTRAINT tags_name_key UNIQUE (name);
@@ -0,0 +1,23 @@
+-- Indexes serving the queries of the repositories which the primary keys and the unique name of the tags do not cover
+
+-- The galleries page through the images with "WHERE (date, id) < (:date, :id) ORDER BY date DESC, id DESC"
+-- The index is kept in that order so the first page is read from its start, the pages going back to newer images read it backwards
+CREATE INDEX images_date_desc_id_desc_idx ON images (date DESC, id DESC);
+-- The ownership checks of the edits and deletes, and the foreign key to the users
+CREATE INDEX images_user_id_idx ON images (user_id);
+-- Images sharing a stored file: marking their smaller copies as generated, counting the references to the file
+CREATE INDEX images_content_hash_idx ON images (content_hash);
+
+-- The tags of an image, and the images of a tag for the tag pages and the tag usage counts
+CREATE INDEX images_tags_images_id_tags_id_idx ON images_tags (images_id, tags_id);
+CREATE INDEX images_tags_tags_id_images_id_idx ON images_tags (tags_id, images_id);
+
+-- The comments of an image are read in pages ordered by id
+CREATE INDEX comment_image_id_comment_id_idx ON comment (image_id, comment_id);
+CREATE INDEX comment_user_id_idx ON comment (user_id);
+
+-- The login looks the user up by name
+CREATE INDEX users_username_idx ON users (username);
+
+-- The collector of unused files looks for files with no reference released before the grace period
+CREATE INDEX image_blobs_ref_count_released_at_idx ON image_blobs (ref_count, released_at);
@@ -0,0 +1,7 @@
+-- Images stored before their smaller copies were tracked have no value, which meant the copies were not generated yet
+-- With the column not null the images still waiting for their copies are found through an index with "derivatives_ready = false"
+UPDATE images SET derivatives_ready = false WHERE derivatives_ready IS NULL;
+ALTER TABLE images ALTER COLUMN derivatives_ready SET DEFAULT false;
+ALTER TABLE images ALTER COLUMN derivatives_ready SET NOT NULL;
+
+CREATE INDEX images_derivatives_ready_content_hash_idx ON images (derivatives_ready, content_hash);
@@ -0,0 +1,8 @@
+-- Deleting images clears 'duplicate_of' of the images flagged as their near-duplicates, see ImageRepository.deleteImages()
+-- The index finds those images, and the images deleted before that was done are no longer pointed to
+
+UPDATE images SET duplicate_of = NULL
+WHERE duplicate_of IS NOT NULL
+  AND NOT EXISTS (SELECT 1 FROM images original WHERE original.id = images.duplicate_of);
+
+CREATE INDEX images_duplicate_of_idx ON images (duplicate_of);
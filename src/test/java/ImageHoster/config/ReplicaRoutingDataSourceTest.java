@@ -0,0 +1,141 @@
+package ImageHoster.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+//These tests route the transactions between two in-memory databases standing in for the primary and a replica
+//Each database holds a single row with its own name, so a query tells which one it was sent to
+public class ReplicaRoutingDataSourceTest {
+
+    private HikariDataSource primary;
+
+    private ReplicaRoutingDataSource routing;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private JdbcTemplate replicaTemplate;
+
+    private TransactionTemplate readOnly;
+
+    private TransactionTemplate readWrite;
+
+    @Before
+    public void setUp() {
+        String suffix = Long.toString(System.nanoTime());
+        primary = new HikariDataSource();
+        primary.setPoolName("test");
+        primary.setJdbcUrl("jdbc:h2:mem:primary" + suffix + ";DB_CLOSE_DELAY=-1");
+        primary.setUsername("sa");
+
+        JpaConfig jpaConfig = new JpaConfig();
+        ReflectionTestUtils.setField(jpaConfig, "replicaUrls", new String[]{"jdbc:h2:mem:replica" + suffix + ";DB_CLOSE_DELAY=-1"});
+        ReflectionTestUtils.setField(jpaConfig, "replicaMaxLag", 5000L);
+        ReflectionTestUtils.setField(jpaConfig, "replicaLagQuery", "SELECT lag FROM replica_lag");
+        routing = jpaConfig.replicaRoutingDataSource(primary);
+        DataSource dataSource = JpaConfig.getEntityManagerDataSource(primary, routing);
+
+        new JdbcTemplate(primary).execute("CREATE TABLE db (name VARCHAR(20)); INSERT INTO db VALUES ('primary')");
+        replicaTemplate = new JdbcTemplate(getReplica());
+        replicaTemplate.execute("CREATE TABLE db (name VARCHAR(20)); INSERT INTO db VALUES ('replica')");
+        replicaTemplate.execute("CREATE TABLE replica_lag (lag BIGINT); INSERT INTO replica_lag VALUES (0)");
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readWrite = new TransactionTemplate(transactionManager);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ReplicaRoutingDataSource.setPrimaryOnly(false);
+        routing.destroy();
+        primary.close();
+    }
+
+    //This test checks that read-only transactions read from the replica and all the others from the primary
+    @Test
+    public void readOnlyTransactionsGoToReplica() {
+        assertEquals("replica", readOnly.execute(status -> currentDatabase()));
+        assertEquals("primary", readWrite.execute(status -> currentDatabase()));
+        assertEquals("primary", currentDatabase());
+    }
+
+    //This test checks that a thread pinned to the primary reads from it also in read-only transactions
+    @Test
+    public void pinnedThreadReadsFromPrimary() {
+        ReplicaRoutingDataSource.setPrimaryOnly(true);
+        assertEquals("primary", readOnly.execute(status -> currentDatabase()));
+
+        ReplicaRoutingDataSource.setPrimaryOnly(false);
+        assertEquals("replica", readOnly.execute(status -> currentDatabase()));
+    }
+
+    //This test checks that a replica lagging too far behind is skipped until it has caught up
+    @Test
+    public void laggingReplicaIsSkipped() {
+        replicaTemplate.update("UPDATE replica_lag SET lag = 60000");
+        routing.checkReplicas();
+        assertEquals("primary", readOnly.execute(status -> currentDatabase()));
+
+        replicaTemplate.update("UPDATE replica_lag SET lag = 100");
+        routing.checkReplicas();
+        assertEquals("replica", readOnly.execute(status -> currentDatabase()));
+    }
+
+    //This test checks that the primary takes over the reads when the replica is not available
+    @Test
+    public void unavailableReplicaFallsBackToPrimary() {
+        getReplica().close();
+
+        assertEquals("primary", readOnly.execute(status -> currentDatabase()));
+        routing.checkReplicas();
+        assertEquals("primary", readOnly.execute(status -> currentDatabase()));
+    }
+
+    //This test checks that the requests of a session are pinned to the primary after it has changed data, until the replicas had time to catch up
+    @Test
+    public void sessionReadsItsWritesFromPrimary() throws Exception {
+        ReadYourWritesFilter filter = new ReadYourWritesFilter();
+        ReflectionTestUtils.setField(filter, "readYourWritesWindow", 10000L);
+        MockHttpSession session = new MockHttpSession();
+        List<Boolean> pinned = new ArrayList<>();
+
+        MockHttpServletRequest get = new MockHttpServletRequest("GET", "/images");
+        get.setSession(session);
+        filter.doFilter(get, new MockHttpServletResponse(), (request, response) -> pinned.add(ReplicaRoutingDataSource.isPrimaryOnly()));
+        MockHttpServletRequest post = new MockHttpServletRequest("POST", "/images/upload");
+        post.setSession(session);
+        filter.doFilter(post, new MockHttpServletResponse(), (request, response) -> pinned.add(ReplicaRoutingDataSource.isPrimaryOnly()));
+        filter.doFilter(get, new MockHttpServletResponse(), (request, response) -> pinned.add(ReplicaRoutingDataSource.isPrimaryOnly()));
+        ReflectionTestUtils.setField(filter, "readYourWritesWindow", 0L);
+        filter.doFilter(get, new MockHttpServletResponse(), (request, response) -> pinned.add(ReplicaRoutingDataSource.isPrimaryOnly()));
+
+        assertEquals("[false, true, true, false]", pinned.toString());
+        assertEquals(false, ReplicaRoutingDataSource.isPrimaryOnly());
+    }
+
+    private String currentDatabase() {
+        return jdbcTemplate.queryForObject("SELECT name FROM db", String.class);
+    }
+
+    private HikariDataSource getReplica() {
+        Object replica = ((List<?>) ReflectionTestUtils.getField(routing, "replicas")).get(0);
+        return (HikariDataSource) ReflectionTestUtils.getField(replica, "dataSource");
+    }
+}
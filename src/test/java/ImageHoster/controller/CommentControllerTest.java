@@ -1,12 +1,12 @@
-/*
 package ImageHoster.controller;
 
 
-import ImageHoster.model.Image;
+import ImageHoster.model.Comment;
+import ImageHoster.model.CommentSummary;
+import ImageHoster.model.CursorPage;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
 import ImageHoster.service.CommentService;
-import ImageHoster.service.ImageService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
@@ -17,7 +17,14 @@ import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.flash;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
 
 @RunWith(SpringRunner.class)
@@ -31,10 +38,7 @@ public class CommentControllerTest {
     @MockBean
     private CommentService commentService;
 
-    @MockBean
-    private ImageService imageService;
-
-    //This test checks controller logic for comment and checks whether the controller logic redirects to the request handling method with request mapping of type "/images/{imageId}/{title}"
+    //This test checks controller logic for comment and checks whether the controller logic redirects to the request handling method with request mapping of type "/images/{id}"
     @Test
     public void createComment() throws Exception {
         User user = new User();
@@ -50,19 +54,44 @@ public class CommentControllerTest {
 
         session = new MockHttpSession();
         session.setAttribute("loggeduser", user);
+        Mockito.when(commentService.submitComment(Mockito.eq(1), Mockito.any(Comment.class))).thenReturn(true);
 
+        this.mockMvc.perform(post("/image/1/new/comments")
+                .param("text", "This comment is for testing purpose")
+                .session(session))
+                .andExpect(redirectedUrl("/images/1"))
+                .andExpect(flash().attributeCount(0));
 
-        Image image = new Image();
-        image.setId(1);
-        image.setTitle("new");
-        image.setDescription("This image is for testing purpose");
+        Mockito.verify(commentService).submitComment(Mockito.eq(1), Mockito.any(Comment.class));
+    }
 
-        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+    //This test checks that the image page is told to show an error when the comment could not be written
+    @Test
+    public void createCommentFails() throws Exception {
+        User user = new User();
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+        Mockito.when(commentService.submitComment(Mockito.eq(1), Mockito.any(Comment.class))).thenReturn(false);
 
         this.mockMvc.perform(post("/image/1/new/comments")
-                .param("comment", "This comment is for testing purpose")
+                .param("text", "This comment is for testing purpose")
                 .session(session))
-                .andExpect(redirectedUrl("/images/1/new"));
+                .andExpect(redirectedUrl("/images/1"))
+                .andExpect(flash().attribute("commentError", true));
+    }
+
+    //This test checks that a page of comments is returned as JSON along with the cursor of the next page
+    @Test
+    public void getComments() throws Exception {
+        List<CommentSummary> comments = Collections.singletonList(new CommentSummary(7, "Nice picture", LocalDate.of(2018, 10, 1), "Abhi"));
+        Mockito.when(commentService.getCommentPage(1, "5", null)).thenReturn(new CursorPage<>(comments, "7", null));
+
+        this.mockMvc.perform(get("/images/1/comments").param("after", "5"))
+                .andExpect(jsonPath("$.items[0].text").value("Nice picture"))
+                .andExpect(jsonPath("$.items[0].username").value("Abhi"))
+                .andExpect(jsonPath("$.next").value("7"));
     }
 }
-*/
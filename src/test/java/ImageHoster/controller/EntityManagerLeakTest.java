@@ -0,0 +1,155 @@
+package ImageHoster.controller;
+
+import ImageHoster.config.EntityManagerLeakDetector;
+import ImageHoster.model.Image;
+import ImageHoster.model.Tag;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.service.CommentService;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.TagService;
+import ImageHoster.service.UserService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import javax.imageio.ImageIO;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+//These tests run the controllers against the real services and repositories on an in-memory database
+//They check that no EntityManager is left open once a request has completed, see EntityManagerLeakFilter
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class EntityManagerLeakTest {
+
+    private MockHttpSession session;
+
+    private Image image;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private CommentService commentService;
+
+    @Autowired
+    private TagService tagService;
+
+    @PersistenceUnit(unitName = "imageHoster")
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setUp() throws Exception {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername("Abhi" + System.nanoTime());
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userService.registerUser(user);
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        Tag tag = tagService.createTag(new Tag("dog" + System.nanoTime()));
+        image = new Image();
+        image.setTitle("new");
+        image.setDescription("This image is for testing purpose");
+        image.setContentType("image/png");
+        image.setDate(new Date());
+        image.setUser(user);
+        image.setTags(Collections.singletonList(tag));
+        imageService.uploadImage(image, new ByteArrayInputStream(png()));
+    }
+
+    @After
+    public void noEntityManagerLeftOpen() {
+        assertEquals(Collections.emptyList(), EntityManagerLeakDetector.getOpenEntityManagers(Thread.currentThread()));
+    }
+
+    //This test requests every page which reads from the database
+    @Test
+    public void readRequestsCloseTheirEntityManagers() throws Exception {
+        perform(get("/"));
+        perform(get("/api/images"));
+        perform(get("/images").session(session));
+        perform(get("/images/" + image.getId()).session(session));
+        perform(get("/images/" + image.getId() + "/raw").param("v", image.getContentHash()));
+        perform(get("/images/" + image.getId() + "/comments"));
+        perform(get("/search").param("q", image.getTitle()).session(session));
+        perform(get("/tags/" + image.getTags().get(0).getName() + ",other").param("match", "any").session(session));
+        perform(get("/tags/suggest").param("prefix", image.getTags().get(0).getName().substring(0, 2)));
+        perform(get("/images/upload").session(session));
+        perform(get("/editImage").param("imageId", image.getId().toString()).session(session));
+    }
+
+    //This test sends the requests which write to the database
+    @Test
+    public void writeRequestsCloseTheirEntityManagers() throws Exception {
+        perform(post("/image/" + image.getId() + "/new/comments").param("text", "Nice").session(session));
+        //The comment is written in the background, wait for it so that the image is deleted along with it
+        for (int i = 0; i < 100 && commentService.getCommentPage(image.getId(), null, null).getItems().isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        perform(get("/images/" + image.getId()).session(session));
+        perform(delete("/deleteImage").param("imageId", image.getId().toString()).session(session));
+    }
+
+    //This test checks that an EntityManager which is not closed is reported along with the code which opened it
+    @Test
+    public void unclosedEntityManagerIsDetected() {
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<EntityManagerLeakDetector> open = EntityManagerLeakDetector.getOpenEntityManagers(Thread.currentThread());
+            assertEquals(1, open.size());
+            assertNotNull(open.get(0).getOpenedBy());
+        } finally {
+            em.close();
+        }
+        assertTrue(EntityManagerLeakDetector.getOpenEntityManagers(Thread.currentThread()).isEmpty());
+    }
+
+    private void perform(RequestBuilder request) throws Exception {
+        int status = mockMvc.perform(request).andReturn().getResponse().getStatus();
+        assertTrue("Unexpected status " + status, status < 400);
+        assertEquals(Collections.emptyList(), EntityManagerLeakDetector.getOpenEntityManagers(Thread.currentThread()));
+    }
+
+    private static byte[] png() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+}
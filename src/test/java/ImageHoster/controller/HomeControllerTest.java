@@ -2,9 +2,12 @@
 
 package ImageHoster.controller;
 
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.ImageSummary;
 import ImageHoster.service.ImageService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
@@ -12,9 +15,15 @@ import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
 
 @RunWith(SpringRunner.class)
@@ -32,10 +41,25 @@ public class HomeControllerTest {
     //This test checks the controller logic when the user sends the GET request to get all images in the application and checks whether the logic returns the html file 'index.html'
     @Test
     public void getAllImages() throws Exception {
+        Mockito.when(imageService.getImagePage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(new CursorPage<>(new ArrayList<>(), null, null));
+
         this.mockMvc.perform(get("/"))
                 .andExpect(view().name("index"))
                 .andExpect(content().string(containsString("Image Hoster")));
     }
+
+    //This test checks that the page of images for infinite scrolling is returned as JSON along with the cursor of the next page
+    @Test
+    public void getImagePage() throws Exception {
+        List<ImageSummary> images = Collections.singletonList(new ImageSummary(1, "new", new Date(), "Abhi", "4e6c8e3f"));
+        Mockito.when(imageService.getImagePage("abc", null, 10)).thenReturn(new CursorPage<>(images, "def", "abc"));
+
+        this.mockMvc.perform(get("/api/images").param("after", "abc").param("size", "10"))
+                .andExpect(jsonPath("$.items[0].title").value("new"))
+                .andExpect(jsonPath("$.items[0].username").value("Abhi"))
+                .andExpect(jsonPath("$.next").value("def"))
+                .andExpect(jsonPath("$.previous").value("abc"));
+    }
 }
 
 
@@ -2,11 +2,13 @@
 
 package ImageHoster.controller;
 
+import ImageHoster.model.CursorPage;
 import ImageHoster.model.Image;
 import ImageHoster.model.Tag;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
 import ImageHoster.repository.ImageRepository;
+import ImageHoster.service.CommentService;
 import ImageHoster.service.ImageService;
 import ImageHoster.service.TagService;
 import org.junit.Test;
@@ -55,6 +57,9 @@ public class ImageControllerTest {
     @MockBean
     private TagService tagService;
 
+    @MockBean
+    private CommentService commentService;
+
     //This test checks the controller logic to get all the images after the user is logged in the application and checks whether the logic returns the html file 'images.html'
     @Test
     public void getUserImages() throws Exception {
@@ -72,6 +77,8 @@ public class ImageControllerTest {
         session = new MockHttpSession();
         session.setAttribute("loggeduser", user);
 
+        Mockito.when(imageService.getImagePage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(new CursorPage<>(new ArrayList<>(), null, null));
+
         this.mockMvc.perform(get("/images").session(session))
                 .andExpect(view().name("images"))
                 .andExpect(content().string(containsString("Welcome User. These are the images")));
@@ -110,6 +117,7 @@ public class ImageControllerTest {
         image.setTags(tags);
 
        Mockito.when(imageService.getImageByTitle(Mockito.anyInt())).thenReturn(image);
+       Mockito.when(commentService.getCommentPage(Mockito.anyInt(), Mockito.any(), Mockito.any())).thenReturn(new CursorPage<>(new ArrayList<>(), null, null));
 
         this.mockMvc.perform(get("/images/1").session(session))
                 .andExpect(view().name("images/image"))
@@ -117,6 +125,22 @@ public class ImageControllerTest {
 
     }
 
+    //This test checks that an image which does not exist, e.g. the deleted original of a near-duplicate, is answered with status 404
+    @Test
+    public void showDeletedImage() throws Exception {
+        User user = new User();
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        Mockito.when(imageService.getImageByTitle(Mockito.anyInt())).thenReturn(null);
+
+        this.mockMvc.perform(get("/images/2").session(session))
+                .andExpect(status().isNotFound());
+    }
+
 
     //This test checks the controller logic when the logged in user sends a GET request to the server to get the form to upload an image in the application and checks whether the logic returns the html file 'images/upload.html'
     @Test
@@ -259,6 +283,7 @@ public class ImageControllerTest {
         Mockito.when(imageService.getImage(Mockito.anyInt(),Mockito.anyInt())).thenReturn(null);
 
         Mockito.when(imageService.getImageByTitle(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(commentService.getCommentPage(Mockito.anyInt(), Mockito.any(), Mockito.any())).thenReturn(new CursorPage<>(new ArrayList<>(), null, null));
 
         this.mockMvc.perform(get("/editImage")
                 .param("imageId", "1")
@@ -267,6 +292,93 @@ public class ImageControllerTest {
                 .andExpect(model().attribute("editError", "Only the owner of the image can edit the image"));
     }
 
+    //This test checks that a new file sent by a non owner of the image does not replace the picture of the image, the image page is shown with the edit error instead
+    @Test
+    public void editImageFileWithNonOwnerOfTheImage() throws Exception {
+        User owner = new User();
+        owner.setId(1);
+        owner.setUsername("Abhi");
+
+        UserProfile userProfile = new UserProfile();
+        userProfile.setId(2);
+        userProfile.setFullName("Prerna");
+        User user = new User();
+        user.setProfile(userProfile);
+        user.setId(2);
+        user.setUsername("Prerna");
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        Image image = new Image();
+        image.setId(1);
+        image.setTitle("new");
+        image.setUser(owner);
+        image.setTags(new ArrayList<>());
+
+        Mockito.when(imageService.getImage(Mockito.anyInt(), Mockito.anyInt())).thenReturn(null);
+        Mockito.when(imageService.getImageByTitle(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(commentService.getCommentPage(Mockito.anyInt(), Mockito.any(), Mockito.any())).thenReturn(new CursorPage<>(new ArrayList<>(), null, null));
+
+        MockMultipartFile mockImage = new MockMultipartFile("file", "image.jpg", "image/jpeg", "some_image".getBytes());
+        this.mockMvc.perform(multipart("/editImage")
+                .file(mockImage)
+                .param("imageId", "1")
+                .param("title", "taken over")
+                .param("tags", "dog")
+                .with(request -> {
+                    request.setMethod("PUT");
+                    return request;
+                })
+                .session(session))
+                .andExpect(view().name("images/image"))
+                .andExpect(model().attribute("editError", "Only the owner of the image can edit the image"));
+
+        Mockito.verify(imageService, Mockito.never()).updateImage(Mockito.any(Image.class), Mockito.any(java.io.InputStream.class));
+    }
+
+    //This test checks that the details of an image edited without a new file by a non owner are not changed and the edit error is shown
+    @Test
+    public void editImageDetailsWithNonOwnerOfTheImage() throws Exception {
+        User owner = new User();
+        owner.setId(1);
+        owner.setUsername("Abhi");
+
+        UserProfile userProfile = new UserProfile();
+        userProfile.setId(2);
+        userProfile.setFullName("Prerna");
+        User user = new User();
+        user.setProfile(userProfile);
+        user.setId(2);
+        user.setUsername("Prerna");
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        Image image = new Image();
+        image.setId(1);
+        image.setTitle("new");
+        image.setUser(owner);
+        image.setTags(new ArrayList<>());
+
+        Mockito.when(imageService.getImage(Mockito.anyInt(), Mockito.anyInt())).thenReturn(null);
+        Mockito.when(imageService.getImageByTitle(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(commentService.getCommentPage(Mockito.anyInt(), Mockito.any(), Mockito.any())).thenReturn(new CursorPage<>(new ArrayList<>(), null, null));
+
+        this.mockMvc.perform(multipart("/editImage")
+                .file(new MockMultipartFile("file", new byte[0]))
+                .param("imageId", "1")
+                .param("title", "taken over")
+                .param("tags", "dog")
+                .with(request -> {
+                    request.setMethod("PUT");
+                    return request;
+                })
+                .session(session))
+                .andExpect(view().name("images/image"))
+                .andExpect(model().attribute("editError", "Only the owner of the image can edit the image"));
+
+        Mockito.verify(imageService, Mockito.never()).updateImageDetails(Mockito.any(Image.class), Mockito.anyInt());
+    }
+
     //This test checks the controller logic when the owner of the image sends the DELETE request to delete the image and checks whether the logic returns the html file 'images.html'
     @Test
     public void deleteImageWithOwnerOfTheImage() throws Exception {
@@ -346,6 +458,7 @@ public class ImageControllerTest {
 
         Mockito.when(imageService.deleteImage(Mockito.anyInt(),Mockito.anyInt())).thenReturn(null);
         Mockito.when(imageService.getImageByTitle(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(commentService.getCommentPage(Mockito.anyInt(), Mockito.any(), Mockito.any())).thenReturn(new CursorPage<>(new ArrayList<>(), null, null));
 
         this.mockMvc.perform(delete("/deleteImage")
                 .param("imageId", "1")
@@ -0,0 +1,211 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.repository.CommentRepository;
+import ImageHoster.repository.StatementCounter;
+import ImageHoster.service.CommentService;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.TagService;
+import ImageHoster.service.UserService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+//These tests check the number of queries of the image page and the statements of an edit and a delete against an in-memory database
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class ImageDetailQueryTest {
+
+    private static final int COMMENTS = 25;
+
+    private MockHttpSession session;
+
+    private Image image;
+
+    private String tagNames;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private TagService tagService;
+
+    @Autowired
+    private CommentService commentService;
+
+    @Autowired
+    private CommentRepository commentRepository;
+
+    @PersistenceUnit(unitName = "imageHoster")
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setUp() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            users.add(registerUser());
+        }
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", users.get(0));
+
+        String suffix = Long.toString(System.nanoTime());
+        image = new Image();
+        image.setTitle("new");
+        image.setDescription("This image is for testing purpose");
+        image.setDate(new Date());
+        image.setUser(users.get(0));
+        tagNames = "dog" + suffix + ",labrador" + suffix + ",yellow" + suffix;
+        image.setTags(tagService.resolveTags(Arrays.asList(tagNames.split(","))));
+        imageService.uploadImage(image);
+
+        List<Comment> comments = new ArrayList<>();
+        for (int i = 0; i < COMMENTS; i++) {
+            Comment comment = new Comment();
+            comment.setText(String.format("comment-%02d", i));
+            comment.setCreatedDate(LocalDate.now());
+            comment.setUser(users.get(i % users.size()));
+            comment.setImage(image);
+            comments.add(comment);
+        }
+        commentRepository.saveComments(comments);
+    }
+
+    //This test checks that the image, its owner, its tags and the first page of comments with their authors are loaded with exactly two queries
+    @Test
+    public void showImageUsesTwoQueries() throws Exception {
+        emf.getCache().evictAll();
+        StatementCounter.reset();
+
+        this.mockMvc.perform(get("/images/" + image.getId()).session(session))
+                .andExpect(view().name("images/image"))
+                .andExpect(content().string(containsString("dog")))
+                .andExpect(content().string(containsString("comment-19")))
+                .andExpect(content().string(not(containsString("comment-20"))));
+
+        assertEquals(StatementCounter.getStatements().toString(), 2, StatementCounter.getStatements().size());
+    }
+
+    //This test checks that the number of queries stays the same when the second-level cache is warm
+    @Test
+    public void showImageWithWarmCacheUsesTwoQueries() throws Exception {
+        this.mockMvc.perform(get("/images/" + image.getId()).session(session));
+        StatementCounter.reset();
+
+        this.mockMvc.perform(get("/images/" + image.getId()).session(session))
+                .andExpect(view().name("images/image"));
+
+        assertEquals(StatementCounter.getStatements().toString(), 2, StatementCounter.getStatements().size());
+    }
+
+    //This test checks that editing only the title writes the changed columns of the image and leaves its file columns and tags alone
+    @Test
+    public void editImageDetailsUpdatesChangedColumnsOnly() throws Exception {
+        StatementCounter.reset();
+
+        this.mockMvc.perform(multipart("/editImage")
+                .file(new MockMultipartFile("file", new byte[0]))
+                .param("imageId", image.getId().toString())
+                .param("title", "renamed")
+                .param("description", image.getDescription())
+                .param("tags", tagNames)
+                .with(request -> {
+                    request.setMethod("PUT");
+                    return request;
+                })
+                .session(session))
+                .andExpect(redirectedUrl("/images/" + image.getId()));
+
+        List<String> updates = new ArrayList<>();
+        for (String statement : StatementCounter.getStatements()) {
+            String sql = statement.toLowerCase();
+            if (sql.startsWith("update") || sql.startsWith("delete") || sql.startsWith("insert")) {
+                updates.add(sql);
+            }
+        }
+        assertEquals(updates.toString(), 1, updates.size());
+        assertThat(updates.get(0), containsString("title=?"));
+        assertThat(updates.get(0), not(containsString("content_hash")));
+        assertThat(updates.get(0), not(containsString("description")));
+
+        Image updated = imageService.getImageByTitle(image.getId());
+        assertEquals("renamed", updated.getTitle());
+        assertEquals(image.getContentHash(), updated.getContentHash());
+        assertEquals(3, updated.getTags().size());
+    }
+
+    //This test checks that deleting an image takes the same few statements whatever its number of comments, and that images of other users are not deleted
+    @Test
+    public void deleteImagesUsesBulkStatements() throws Exception {
+        Image other = new Image();
+        other.setTitle("other");
+        other.setDate(new Date());
+        other.setUser(registerUser());
+        imageService.uploadImage(other);
+        User owner = (User) session.getAttribute("loggeduser");
+        StatementCounter.reset();
+
+        this.mockMvc.perform(delete("/deleteImages")
+                .param("imageId", image.getId().toString(), other.getId().toString())
+                .session(session))
+                .andExpect(redirectedUrl("/images"));
+
+        assertEquals(StatementCounter.getStatements().toString(), 5, StatementCounter.getStatements().size());
+        assertNull(imageService.getImageByTitle(image.getId()));
+        assertEquals(0, commentService.getCommentPage(image.getId(), null, null).getItems().size());
+        assertEquals("other", imageService.getImageByTitle(other.getId()).getTitle());
+        assertNull(imageService.deleteImage(other.getId(), owner.getId()));
+    }
+
+    private User registerUser() {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername("Abhi" + System.nanoTime());
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userService.registerUser(user);
+        return user;
+    }
+}
@@ -0,0 +1,147 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageFile;
+import ImageHoster.service.ImageService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(ImageFileController.class)
+public class ImageFileControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ImageService imageService;
+
+    //This test checks that the bytes of the stored file are sent back with the content type of the image
+    @Test
+    public void getImageFile() throws Exception {
+        Path imageFile = Files.createTempFile("image", ".png");
+        Files.write(imageFile, "some_image".getBytes());
+
+        Image image = new Image();
+        image.setId(1);
+        image.setTitle("new");
+        image.setContentHash("4e6c8e3f0d2f4c3b0c8f1e7f3f9a4c2d1b0e9f8a7c6b5d4e3f2a1b0c9d8e7f6a");
+        image.setContentType("image/png");
+
+        Mockito.when(imageService.getImageById(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageFile(image, null)).thenReturn(new ImageFile(imageFile, "image/png", image.getContentHash(), true));
+
+        this.mockMvc.perform(get("/images/1/raw"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(content().bytes("some_image".getBytes()));
+
+        Files.delete(imageFile);
+    }
+
+    //This test checks that only the requested part of the file is sent back when the request has a Range header
+    @Test
+    public void getImageFileWithRange() throws Exception {
+        Path imageFile = Files.createTempFile("image", ".png");
+        Files.write(imageFile, "some_image".getBytes());
+
+        Image image = new Image();
+        image.setId(1);
+        image.setContentHash("4e6c8e3f0d2f4c3b0c8f1e7f3f9a4c2d1b0e9f8a7c6b5d4e3f2a1b0c9d8e7f6a");
+        image.setContentType("image/png");
+
+        Mockito.when(imageService.getImageById(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageFile(image, null)).thenReturn(new ImageFile(imageFile, "image/png", image.getContentHash(), true));
+
+        this.mockMvc.perform(get("/images/1/raw").header("Range", "bytes=5-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 5-9/10"))
+                .andExpect(content().bytes("image".getBytes()));
+
+        this.mockMvc.perform(get("/images/1/raw").header("Range", "bytes=20-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */10"));
+
+        Files.delete(imageFile);
+    }
+
+    //This test checks that a request carrying the current ETag in If-None-Match gets a 304 without any body
+    //and that the URL containing the content hash is marked as cacheable forever
+    @Test
+    public void getImageFileNotModified() throws Exception {
+        Path imageFile = Files.createTempFile("image", ".png");
+        Files.write(imageFile, "some_image".getBytes());
+
+        String contentHash = "4e6c8e3f0d2f4c3b0c8f1e7f3f9a4c2d1b0e9f8a7c6b5d4e3f2a1b0c9d8e7f6a";
+        Image image = new Image();
+        image.setId(1);
+        image.setContentHash(contentHash);
+        image.setContentType("image/png");
+
+        Mockito.when(imageService.getImageById(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageFile(image, null)).thenReturn(new ImageFile(imageFile, "image/png", image.getContentHash(), true));
+
+        this.mockMvc.perform(get("/images/1/raw").param("v", contentHash))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + contentHash + "\""))
+                .andExpect(header().string("Cache-Control", "public, max-age=31536000, immutable"));
+
+        this.mockMvc.perform(get("/images/1/raw").header("If-None-Match", "\"" + contentHash + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andExpect(content().bytes(new byte[0]));
+
+        Files.delete(imageFile);
+    }
+
+    //This test checks that the derivative with the requested width is sent, and that the original sent in its place is not cached forever
+    @Test
+    public void getImageFileWithWidth() throws Exception {
+        Path imageFile = Files.createTempFile("image", ".jpg");
+        Files.write(imageFile, "small_image".getBytes());
+
+        String contentHash = "4e6c8e3f0d2f4c3b0c8f1e7f3f9a4c2d1b0e9f8a7c6b5d4e3f2a1b0c9d8e7f6a";
+        Image image = new Image();
+        image.setId(1);
+        image.setContentHash(contentHash);
+        image.setContentType("image/png");
+
+        Mockito.when(imageService.getImageById(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageFile(image, 200)).thenReturn(new ImageFile(imageFile, "image/jpeg", contentHash + "-w200", true));
+        Mockito.when(imageService.getImageFile(image, 800)).thenReturn(new ImageFile(imageFile, "image/png", contentHash, false));
+
+        this.mockMvc.perform(get("/images/1/raw").param("v", contentHash).param("w", "200"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/jpeg"))
+                .andExpect(header().string("ETag", "\"" + contentHash + "-w200\""))
+                .andExpect(header().string("Cache-Control", "public, max-age=31536000, immutable"))
+                .andExpect(content().bytes("small_image".getBytes()));
+
+        this.mockMvc.perform(get("/images/1/raw").param("v", contentHash).param("w", "800"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-cache"));
+
+        Files.delete(imageFile);
+    }
+
+    //This test checks that the controller logic returns 404 when there is no image with the requested id
+    @Test
+    public void getImageFileOfUnknownImage() throws Exception {
+        Mockito.when(imageService.getImageById(Mockito.anyInt())).thenReturn(null);
+
+        this.mockMvc.perform(get("/images/1/raw"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,165 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.UserService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+//These tests send images in chunks through the real services on an in-memory database
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class UploadControllerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MockHttpSession session;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Before
+    public void setUp() {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername("Abhi" + System.nanoTime());
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userService.registerUser(user);
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+    }
+
+    //This test sends an image in three chunks, one of which is corrupted on the way and sent again, and checks the stored image
+    @Test
+    public void uploadIsResumedAfterBadChunk() throws Exception {
+        byte[] file = png();
+        int chunkSize = file.length / 3 + 1;
+        String id = start(file.length);
+
+        putChunk(id, 0, Arrays.copyOfRange(file, 0, chunkSize), null).andExpect(status().isOk()).andExpect(jsonPath("$.offset").value(chunkSize));
+
+        byte[] second = Arrays.copyOfRange(file, chunkSize, 2 * chunkSize);
+        byte[] corrupted = second.clone();
+        corrupted[10] ^= 1;
+        putChunk(id, chunkSize, corrupted, sha256(second)).andExpect(status().isConflict()).andExpect(jsonPath("$.offset").value(chunkSize));
+
+        //The client asks where to continue, and sending a chunk from the wrong offset is refused
+        mockMvc.perform(get("/api/uploads/" + id).session(session)).andExpect(jsonPath("$.offset").value(chunkSize));
+        putChunk(id, 0, Arrays.copyOfRange(file, 0, chunkSize), null).andExpect(status().isConflict());
+        mockMvc.perform(post("/api/uploads/" + id + "/complete").session(session).param("title", "chunked"))
+                .andExpect(status().isConflict());
+
+        putChunk(id, chunkSize, second, null).andExpect(status().isOk());
+        putChunk(id, 2 * chunkSize, Arrays.copyOfRange(file, 2 * chunkSize, file.length), null).andExpect(jsonPath("$.offset").value(file.length));
+
+        String response = mockMvc.perform(post("/api/uploads/" + id + "/complete").session(session)
+                .param("title", "chunked").param("tags", "large,chunked"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        Image image = imageService.getImageByTitle(objectMapper.readTree(response).get("id").asInt());
+        assertEquals("chunked", image.getTitle());
+        assertEquals("image/png", image.getContentType());
+        assertEquals(2, image.getTags().size());
+        assertEquals(file.length, image.getSize().longValue());
+
+        mockMvc.perform(get("/api/uploads/" + id).session(session)).andExpect(status().isNotFound());
+    }
+
+    //This test checks that an upload cannot be continued by another user or grow beyond its announced size
+    @Test
+    public void uploadBelongsToItsUser() throws Exception {
+        String id = start(100);
+
+        putChunk(id, 0, new byte[101], null).andExpect(status().isConflict()).andExpect(jsonPath("$.offset").value(0));
+        mockMvc.perform(get("/api/uploads/" + id).session(new MockHttpSession())).andExpect(status().isUnauthorized());
+
+        MockHttpSession otherSession = new MockHttpSession();
+        User other = new User();
+        other.setId(-1);
+        otherSession.setAttribute("loggeduser", other);
+        mockMvc.perform(get("/api/uploads/" + id).session(otherSession)).andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/uploads/../" + id).session(session)).andExpect(status().isNotFound());
+
+        mockMvc.perform(delete("/api/uploads/" + id).session(session)).andExpect(status().isNoContent());
+        mockMvc.perform(get("/api/uploads/" + id).session(session)).andExpect(status().isNotFound());
+    }
+
+    private String start(long size) throws Exception {
+        String response = mockMvc.perform(post("/api/uploads").session(session).param("size", Long.toString(size)))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        JsonNode upload = objectMapper.readTree(response);
+        assertEquals(0, upload.get("offset").asLong());
+        return upload.get("id").asText();
+    }
+
+    private ResultActions putChunk(String id, long offset, byte[] chunk, String checksum) throws Exception {
+        return mockMvc.perform(put("/api/uploads/" + id).session(session)
+                .param("offset", Long.toString(offset))
+                .header(UploadController.CHECKSUM_HEADER, checksum == null ? sha256(chunk) : checksum)
+                .contentType("application/octet-stream")
+                .content(chunk));
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    //A noisy picture, which compresses badly and hence gives a file of a few hundred kilobytes
+    private static byte[] png() throws Exception {
+        Random random = new Random();
+        BufferedImage picture = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < picture.getHeight(); y++) {
+            for (int x = 0; x < picture.getWidth(); x++) {
+                picture.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(picture, "png", out);
+        assertArrayEquals(new byte[]{(byte) 0x89, 'P', 'N', 'G'}, Arrays.copyOf(out.toByteArray(), 4));
+        return out.toByteArray();
+    }
+}
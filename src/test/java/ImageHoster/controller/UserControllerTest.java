@@ -1,6 +1,7 @@
 
 package ImageHoster.controller;
 
+import ImageHoster.model.CursorPage;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
 import ImageHoster.repository.ImageRepository;
@@ -19,6 +20,8 @@ import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.ArrayList;
+
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -176,6 +179,8 @@ public class UserControllerTest {
         session = new MockHttpSession();
         session.setAttribute("loggeduser", user);
 
+        Mockito.when(imageService.getImagePage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(new CursorPage<>(new ArrayList<>(), null, null));
+
         this.mockMvc.perform(post("/users/logout").session(session))
                 .andExpect(view().name("index"))
                 .andExpect(content().string(containsString("Image Hoster")));
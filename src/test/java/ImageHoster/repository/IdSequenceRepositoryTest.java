@@ -0,0 +1,113 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import org.hibernate.SessionFactory;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//These tests check the per table id sequences on an in-memory database
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class IdSequenceRepositoryTest {
+
+    @Autowired
+    private IdSequenceRepository idSequenceRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private CommentRepository commentRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PersistenceUnit(unitName = "imageHoster")
+    private EntityManagerFactory emf;
+
+    //This test checks that a sequence behind the ids stored in its table, e.g. from the shared 'hibernate_sequence', is moved past them
+    @Test
+    public void sequenceIsMovedPastExistingIds() {
+        long legacyId = 1000000;
+        jdbcTemplate.update("INSERT INTO tags (id, name) VALUES (?, ?)", legacyId, "legacy" + System.nanoTime());
+
+        assertTrue(idSequenceRepository.alignSequences().contains("tags_id_seq"));
+        assertTrue(idSequenceRepository.alignSequences().isEmpty());
+
+        Dialect dialect = emf.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+        long nextValue = jdbcTemplate.queryForObject(dialect.getSequenceNextValString("tags_id_seq"), Long.class);
+        assertTrue(nextValue - 50 >= legacyId);
+    }
+
+    //This test checks that the comments of a batch are sent with a single insert statement, with their ids taken from pooled blocks
+    @Test
+    public void commentsAreInsertedInOneBatch() {
+        User user = registerUser();
+        Image image = new Image();
+        image.setTitle("new");
+        image.setDate(new Date());
+        image.setUser(user);
+        imageRepository.uploadImage(image);
+
+        List<Comment> comments = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Image imageWithId = new Image();
+            imageWithId.setId(image.getId());
+            Comment comment = new Comment();
+            comment.setText("comment-" + i);
+            comment.setCreatedDate(LocalDate.now());
+            comment.setUser(user);
+            comment.setImage(imageWithId);
+            comments.add(comment);
+        }
+
+        emf.unwrap(SessionFactory.class).getStatistics().clear();
+        StatementCounter.reset();
+        commentRepository.saveComments(comments);
+
+        List<String> inserts = StatementCounter.getStatements().stream()
+                .filter(sql -> sql.toLowerCase().startsWith("insert"))
+                .collect(Collectors.toList());
+        assertEquals(inserts.toString(), 1, inserts.size());
+        assertTrue(StatementCounter.getStatements().toString(), StatementCounter.getStatements().size() <= 3);
+        assertEquals(20, emf.unwrap(SessionFactory.class).getStatistics().getEntityInsertCount());
+    }
+
+    private User registerUser() {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername("Abhi" + System.nanoTime());
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userRepository.registerUser(user);
+        return user;
+    }
+}
@@ -0,0 +1,76 @@
+package ImageHoster.repository;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PerceptualHashIndexTest {
+
+    //This test compares the searches of the tree with comparing the hash with every hash, for random hashes and hashes close to the stored ones
+    @Test
+    public void findsTheSameHashesAsComparingAll() {
+        Random random = new Random(42);
+        PerceptualHashIndex index = new PerceptualHashIndex();
+        long[] hashes = new long[5000];
+        for (int id = 0; id < hashes.length; id++) {
+            hashes[id] = id % 5 == 0 && id > 0 ? flipBits(hashes[random.nextInt(id)], random.nextInt(6), random) : random.nextLong();
+            index.add(id, hashes[id]);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            long hash = i % 2 == 0 ? random.nextLong() : flipBits(hashes[random.nextInt(hashes.length)], random.nextInt(8), random);
+            for (int maxDistance : new int[]{0, 4, 10}) {
+                List<Integer> expected = new ArrayList<>();
+                int closestDistance = Integer.MAX_VALUE;
+                for (int id = 0; id < hashes.length; id++) {
+                    int distance = Long.bitCount(hashes[id] ^ hash);
+                    if (distance <= maxDistance) {
+                        expected.add(id);
+                        closestDistance = Math.min(closestDistance, distance);
+                    }
+                }
+                List<Integer> found = index.findWithin(hash, maxDistance);
+                Collections.sort(found);
+                assertEquals(expected, found);
+
+                Integer closest = index.findClosest(hash, maxDistance, null);
+                if (expected.isEmpty()) {
+                    assertNull(closest);
+                } else {
+                    assertEquals(closestDistance, Long.bitCount(hashes[closest] ^ hash));
+                }
+            }
+        }
+    }
+
+    //This test checks that an excluded or removed image is not found, while another image with the same hash still is
+    @Test
+    public void excludesAndRemovesImages() {
+        PerceptualHashIndex index = new PerceptualHashIndex();
+        index.add(1, 0xF0F0L);
+        index.add(2, 0xF0F0L);
+        index.add(3, 0xF0F1L);
+
+        assertEquals(Integer.valueOf(3), index.findClosest(0xF0F1L, 4, null));
+        assertEquals(Integer.valueOf(1), index.findClosest(0xF0F1L, 4, 3));
+
+        index.remove(1, 0xF0F0L);
+        assertEquals(Integer.valueOf(2), index.findClosest(0xF0F0L, 0, null));
+        index.remove(2, 0xF0F0L);
+        assertNull(index.findClosest(0xF0F0L, 0, null));
+        assertEquals(Integer.valueOf(3), index.findClosest(0xF0F0L, 1, null));
+    }
+
+    private static long flipBits(long hash, int bits, Random random) {
+        for (int i = 0; i < bits; i++) {
+            hash ^= 1L << random.nextInt(64);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,201 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.Comment;
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageCursor;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.StoredImage;
+import ImageHoster.model.Tag;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import org.hibernate.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertTrue;
+
+//This test runs every query of the repositories against the migrated schema of the in-memory database and checks its plan with EXPLAIN
+//A query which reads a whole table instead of using an index fails the test, the tables are filled with enough rows that the planner prefers an index where one applies
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class QueryPlanTest {
+
+    private static final int IMAGES = 300;
+
+    //H2 marks a sequential scan as /* PUBLIC.<TABLE>.tableScan */ in the plan
+    //MAX() and COUNT(*) without a condition are answered from the index or the row count, which H2 adds as /* direct lookup */
+    private static final Pattern TABLE_SCAN = Pattern.compile("/\\* PUBLIC\\.(\\w+)\\.tableScan \\*/(?!\\s*/\\* direct lookup)");
+
+    private final String suffix = Long.toString(System.nanoTime());
+
+    private User user;
+
+    private List<Tag> tags;
+
+    private List<Image> images = new ArrayList<>();
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private CommentRepository commentRepository;
+
+    @Autowired
+    private TagRepository tagRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
+
+    @Autowired
+    private IdSequenceRepository idSequenceRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PersistenceUnit(unitName = "imageHoster")
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setUp() {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        user = new User();
+        user.setUsername("Abhi" + suffix);
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userRepository.registerUser(user);
+
+        tagRepository.insertTags(Arrays.asList("dog" + suffix, "cat" + suffix));
+        tags = tagRepository.findTags(Arrays.asList("dog" + suffix, "cat" + suffix));
+
+        List<Comment> comments = new ArrayList<>();
+        for (int i = 0; i < IMAGES; i++) {
+            Image image = new Image();
+            image.setTitle("image" + i);
+            image.setDate(new Date(System.currentTimeMillis() - i * 1000L));
+            image.setUser(user);
+            image.setTags(new ArrayList<>(tags));
+            image.setContentHash("h" + suffix + "-" + i);
+            image.setSize(100L);
+            imageRepository.uploadImage(image);
+            images.add(image);
+
+            Comment comment = new Comment();
+            comment.setText("comment" + i);
+            comment.setCreatedDate(LocalDate.now());
+            comment.setUser(user);
+            comment.setImage(image);
+            comments.add(comment);
+        }
+        commentRepository.saveComments(comments);
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    //This test checks that no query of the repositories reads a whole table
+    @Test
+    public void repositoryQueriesUseIndexes() throws Exception {
+        emf.getCache().evictAll();
+        emf.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+        Image image = images.get(IMAGES / 2);
+        StatementCounter.reset();
+
+        List<ImageSummary> page = imageRepository.getImagesAfter(null, 20);
+        imageRepository.getImagesAfter(ImageCursor.of(page.get(page.size() - 1)), 20);
+        imageRepository.getImagesBefore(ImageCursor.of(page.get(page.size() - 1)), 20);
+        imageRepository.getImageByTitle(image.getId());
+        imageRepository.getImageById(images.get(1).getId());
+        imageRepository.getImage(images.get(2).getId(), user.getId());
+        imageRepository.getImageSummaries(Arrays.asList(images.get(3).getId(), images.get(4).getId()));
+        imageRepository.getImagesWithTagsAfter(image.getId(), 10);
+        imageRepository.getImageTagsAfter(image.getId(), tags.get(0).getId(), 10);
+        imageRepository.getPerceptualHashesAfter(image.getId(), 10);
+        imageRepository.getImagesWithoutPerceptualHashAfter(image.getId(), 10);
+        imageRepository.setPerceptualHashes(Collections.singletonMap(image.getId(), 42L));
+        imageRepository.markDerivativesReady(image.getContentHash());
+        imageRepository.getContentHashesWithoutDerivatives(10);
+        imageRepository.countImages();
+
+        Image edited = imageRepository.getImageByTitle(images.get(5).getId());
+        edited.setTitle("edited");
+        imageRepository.updateImageDetails(edited, user.getId());
+        edited.setContentHash(images.get(6).getContentHash());
+        imageRepository.updateImage(edited);
+        imageRepository.deleteImages(Arrays.asList(images.get(7).getId(), images.get(8).getId()), user.getId());
+
+        commentRepository.getCommentsAfter(image.getId(), null, 20);
+        commentRepository.getCommentsAfter(image.getId(), 0, 20);
+
+        tagRepository.findTag("dog" + suffix);
+        tagRepository.findTags(Arrays.asList("dog" + suffix, "bird" + suffix));
+        tagRepository.getTagUsageAfter(tags.get(0).getId() - 1, 10);
+
+        userRepository.checkUser(user.getUsername(), "password1@");
+
+        imageBlobRepository.registerUnreferenced("f" + suffix, 10L);
+        imageBlobRepository.getUnreferencedBlobs(new Date(), "", 10);
+        imageBlobRepository.getBlob(image.getContentHash());
+        imageBlobRepository.release(images.get(9).getContentHash());
+        imageBlobRepository.removeIfUnreferenced("f" + suffix);
+
+        idSequenceRepository.alignSequences();
+
+        List<String> statements = StatementCounter.getStatements();
+        List<String> scans = new ArrayList<>();
+        int explained = 0;
+        for (String sql : statements) {
+            String verb = sql.trim().toLowerCase().split("\\s+")[0];
+            if (!verb.equals("select") && !verb.equals("update") && !verb.equals("delete")) {
+                continue;
+            }
+            String plan = explain(sql);
+            explained++;
+            Matcher matcher = TABLE_SCAN.matcher(plan);
+            while (matcher.find()) {
+                scans.add(matcher.group(1) + ": " + plan);
+            }
+        }
+        assertTrue(Integer.toString(explained), explained > 30);
+        assertTrue(String.join("\n", scans), scans.isEmpty());
+    }
+
+    //The parameters do not change the plan of H2, they are all set to NULL
+    private String explain(String sql) {
+        return jdbcTemplate.execute((java.sql.Connection connection) -> {
+            try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+                ParameterMetaData parameters = statement.getParameterMetaData();
+                for (int i = 1; i <= parameters.getParameterCount(); i++) {
+                    statement.setNull(i, parameters.getParameterType(i));
+                }
+                StringBuilder plan = new StringBuilder();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        plan.append(resultSet.getString(1));
+                    }
+                }
+                return plan.toString().replaceAll("\\s+", " ");
+            }
+        });
+    }
+}
@@ -0,0 +1,126 @@
+package ImageHoster.repository;
+
+import org.flywaydb.core.Flyway;
+import org.junit.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//These tests run the Flyway migrations on in-memory databases, with the settings of application.properties
+public class SchemaMigrationTest {
+
+    //The schema Hibernate created before the migrations were introduced, with the bytes of the images in 'imagefile'
+    private static final String[] LEGACY_SCHEMA = {
+            "CREATE SEQUENCE hibernate_sequence START WITH 1 INCREMENT BY 1",
+            "CREATE TABLE user_profile (id INT4 NOT NULL, email_address VARCHAR(255), full_name VARCHAR(255), mobile_number VARCHAR(255), PRIMARY KEY (id))",
+            "CREATE TABLE users (id INT4 NOT NULL, password VARCHAR(255), username VARCHAR(255), profile_id INT4, PRIMARY KEY (id))",
+            "CREATE TABLE images (id INT4 NOT NULL, date TIMESTAMP, description VARCHAR(255), imagefile TEXT, title VARCHAR(255), user_id INT4, PRIMARY KEY (id))",
+            "CREATE TABLE tags (id INT4 NOT NULL, name VARCHAR(255), PRIMARY KEY (id))",
+            "CREATE TABLE images_tags (images_id INT4 NOT NULL, tags_id INT4 NOT NULL)",
+            "CREATE TABLE comment (comment_id INT4 NOT NULL, timestamp DATE, text VARCHAR(256), image_id INT4, user_id INT4, PRIMARY KEY (comment_id))",
+            "ALTER TABLE comment ADD CONSTRAINT FKbca0ka40npa5xylj6mml6ulnw FOREIGN KEY (image_id) REFERENCES images",
+            "ALTER TABLE comment ADD CONSTRAINT FKqm52p1v3o13hy268he0wcngr5 FOREIGN KEY (user_id) REFERENCES users",
+            "ALTER TABLE images ADD CONSTRAINT FK13ljqfrfwbyvnsdhihwta8cpr FOREIGN KEY (user_id) REFERENCES users",
+            "ALTER TABLE images_tags ADD CONSTRAINT FKtr5ixprfwwbq8u50gj470tkgv FOREIGN KEY (tags_id) REFERENCES tags",
+            "ALTER TABLE images_tags ADD CONSTRAINT FKgsj11feci341byyrilwywpe47 FOREIGN KEY (images_id) REFERENCES images",
+            "ALTER TABLE users ADD CONSTRAINT FKo47sw84ajr24vfq4ccoha1256 FOREIGN KEY (profile_id) REFERENCES user_profile"
+    };
+
+    //This test upgrades a database created before the migrations, it is baselined and gets every migration after the first one
+    @Test
+    public void legacyDatabaseIsUpgraded() {
+        DataSource dataSource = createDataSource("legacy");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        for (String statement : LEGACY_SCHEMA) {
+            jdbcTemplate.execute(statement);
+        }
+        jdbcTemplate.update("INSERT INTO user_profile VALUES (1, 'a@b.c', 'Abc', '123')");
+        jdbcTemplate.update("INSERT INTO users VALUES (2, 'password', 'abc', 1)");
+        jdbcTemplate.update("INSERT INTO images VALUES (3, CURRENT_TIMESTAMP, 'first', 'aW1hZ2U=', 'first', 2)");
+        jdbcTemplate.update("INSERT INTO images VALUES (4, CURRENT_TIMESTAMP, 'second', 'aW1hZ2U=', 'second', 2)");
+        jdbcTemplate.update("INSERT INTO tags VALUES (5, 'Dog')");
+        jdbcTemplate.update("INSERT INTO tags VALUES (6, 'dog ')");
+        jdbcTemplate.update("INSERT INTO tags VALUES (7, 'Cat')");
+        jdbcTemplate.update("INSERT INTO tags VALUES (8, NULL)");
+        jdbcTemplate.update("INSERT INTO tags VALUES (11, 'Black  Dog')");
+        jdbcTemplate.update("INSERT INTO tags VALUES (12, ?)", "black\t dog\n");
+        jdbcTemplate.update("INSERT INTO tags VALUES (13, ' ')");
+        jdbcTemplate.update("INSERT INTO images_tags VALUES (3, 5)");
+        jdbcTemplate.update("INSERT INTO images_tags VALUES (3, 6)");
+        jdbcTemplate.update("INSERT INTO images_tags VALUES (3, 8)");
+        jdbcTemplate.update("INSERT INTO images_tags VALUES (4, 6)");
+        jdbcTemplate.update("INSERT INTO images_tags VALUES (4, 7)");
+        jdbcTemplate.update("INSERT INTO images_tags VALUES (4, 12)");
+        jdbcTemplate.update("INSERT INTO images_tags VALUES (4, 13)");
+        jdbcTemplate.update("INSERT INTO comment VALUES (9, CURRENT_DATE, 'nice', 3, 2)");
+
+        assertEquals("6", migrate(dataSource));
+
+        //The bytes are left for LegacyImageFileMigration, which selects the images the same way
+        assertEquals(Arrays.asList(3, 4), jdbcTemplate.queryForList("SELECT id FROM images WHERE imagefile IS NOT NULL AND content_hash IS NULL ORDER BY id", Integer.class));
+        assertEquals(0, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM images WHERE derivatives_ready", Integer.class));
+
+        //The tags differing by case and whitespace are merged into the first one, and every image keeps one link to it
+        //The names are normalized like TagService.normalize(), so that the tags are found again by their name
+        assertEquals(Arrays.asList("dog", "cat", "black dog"), jdbcTemplate.queryForList("SELECT name FROM tags ORDER BY id", String.class));
+        assertEquals(Arrays.asList("3:5", "4:5", "4:7", "4:11"), jdbcTemplate.queryForList(
+                "SELECT images_id || ':' || tags_id FROM images_tags ORDER BY images_id, tags_id", String.class));
+        try {
+            jdbcTemplate.update("INSERT INTO tags VALUES (10, 'cat')");
+            fail();
+        } catch (DuplicateKeyException e) {
+            //The names are unique once merged
+        }
+
+        assertEquals(1, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM comment", Integer.class));
+        assertEquals(1, (long) jdbcTemplate.queryForObject("SELECT NEXTVAL('images_id_seq')", Long.class));
+        assertEquals(0, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM image_blobs", Integer.class));
+    }
+
+    //This test checks that an upgraded database ends up with the same columns as a database created by the migrations
+    @Test
+    public void upgradedAndNewDatabasesHaveTheSameColumns() {
+        DataSource legacy = createDataSource("upgraded");
+        for (String statement : LEGACY_SCHEMA) {
+            new JdbcTemplate(legacy).execute(statement);
+        }
+        migrate(legacy);
+
+        DataSource empty = createDataSource("new");
+        migrate(empty);
+
+        Set<String> columns = getColumns(empty);
+        assertTrue(columns.contains("IMAGES.IMAGEFILE CLOB YES"));
+        assertEquals(columns, getColumns(legacy));
+    }
+
+    private static DataSource createDataSource(String name) {
+        return new DriverManagerDataSource("jdbc:h2:mem:" + name + "-" + System.nanoTime() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    private static String migrate(DataSource dataSource) {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.setBaselineOnMigrate(true);
+        flyway.setBaselineVersionAsString("1");
+        flyway.migrate();
+        return flyway.info().current().getVersion().getVersion();
+    }
+
+    private static Set<String> getColumns(DataSource dataSource) {
+        List<String> columns = new JdbcTemplate(dataSource).queryForList(
+                "SELECT table_name || '.' || column_name || ' ' || type_name || ' ' || is_nullable FROM information_schema.columns " +
+                        "WHERE table_schema = 'PUBLIC' AND table_name <> 'flyway_schema_history'", String.class);
+        return new HashSet<>(columns);
+    }
+}
@@ -0,0 +1,91 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.Tag;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+//These tests check that tags and images are served from the second-level and query cache on an in-memory database
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class SecondLevelCacheTest {
+
+    private Statistics statistics;
+
+    @Autowired
+    private TagRepository tagRepository;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @PersistenceUnit(unitName = "imageHoster")
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setUp() {
+        statistics = emf.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    //This test checks that looking up the same tag again is answered by the query cache without going to the database
+    @Test
+    public void findTagIsCached() {
+        String name = "cat" + System.nanoTime();
+        tagRepository.createTag(new Tag(name));
+
+        tagRepository.findTag(name);
+        long queries = statistics.getQueryExecutionCount();
+        long hits = statistics.getQueryCacheHitCount();
+
+        assertEquals(name, tagRepository.findTag(name).getName());
+        assertEquals(queries, statistics.getQueryExecutionCount());
+        assertEquals(hits + 1, statistics.getQueryCacheHitCount());
+    }
+
+    //This test checks that a cached lookup of a missing tag is invalidated once the tag is created
+    @Test
+    public void createTagInvalidatesCachedLookup() {
+        String name = "dog" + System.nanoTime();
+        assertNull(tagRepository.findTag(name));
+
+        tagRepository.createTag(new Tag(name));
+
+        assertEquals(name, tagRepository.findTag(name).getName());
+    }
+
+    //This test checks that an image is loaded from the second-level cache and that an update replaces the cached copy
+    @Test
+    public void imageIsCachedAndUpdated() {
+        Image image = new Image();
+        image.setTitle("old");
+        image.setDate(new Date());
+        imageRepository.uploadImage(image);
+
+        imageRepository.getImageById(image.getId());
+        long statements = statistics.getPrepareStatementCount();
+        long hits = statistics.getSecondLevelCacheHitCount();
+
+        assertEquals("old", imageRepository.getImageById(image.getId()).getTitle());
+        assertEquals(statements, statistics.getPrepareStatementCount());
+        assertEquals(hits + 1, statistics.getSecondLevelCacheHitCount());
+
+        image.setTitle("new");
+        imageRepository.updateImage(image);
+
+        assertEquals("new", imageRepository.getImageById(image.getId()).getTitle());
+    }
+}
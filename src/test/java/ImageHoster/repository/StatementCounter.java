@@ -0,0 +1,28 @@
+package ImageHoster.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Hibernate passes every SQL statement to this inspector before preparing it, see 'hibernate.session_factory.statement_inspector' in application-test.properties
+//The statements are recorded per thread, so that the work of background threads does not disturb the counts of a test
+public class StatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<List<String>> STATEMENTS = ThreadLocal.withInitial(ArrayList::new);
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.get().add(sql);
+        return sql;
+    }
+
+    public static void reset() {
+        STATEMENTS.get().clear();
+    }
+
+    //Returns the statements prepared on the current thread since the last reset
+    public static List<String> getStatements() {
+        return new ArrayList<>(STATEMENTS.get());
+    }
+}
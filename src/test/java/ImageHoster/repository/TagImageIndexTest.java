@@ -0,0 +1,71 @@
+package ImageHoster.repository;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TagImageIndexTest {
+
+    private TagImageIndex index;
+
+    @Before
+    public void setUp() {
+        index = new TagImageIndex();
+        for (int id = 1; id <= 10; id++) {
+            index.add(id, "all");
+            index.add(id, id % 2 == 0 ? "even" : "odd");
+            if (id % 3 == 0) {
+                index.add(id, "three");
+            }
+        }
+        index.optimize();
+    }
+
+    //This test checks the images having all or any of the tags, highest id first
+    @Test
+    public void combinesTags() {
+        assertEquals(Arrays.asList(6), index.getImageIds(Arrays.asList("even", "three"), true, null, 10));
+        assertEquals(Arrays.asList(10, 9, 8, 6, 4, 3, 2), index.getImageIds(Arrays.asList("even", "three"), false, null, 10));
+        assertTrue(index.getImageIds(Arrays.asList("even", "missing"), true, null, 10).isEmpty());
+        assertEquals(Arrays.asList(9, 6, 3), index.getImageIds(Arrays.asList("three", "missing"), false, 10, 10));
+    }
+
+    //This test checks that the pages continue below the last id of the previous page
+    @Test
+    public void pagesContinueBelowCursor() {
+        assertEquals(Arrays.asList(10, 9, 8), index.getImageIds(Collections.singletonList("all"), true, null, 3));
+        assertEquals(Arrays.asList(7, 6, 5), index.getImageIds(Collections.singletonList("all"), true, 8, 3));
+        assertEquals(Arrays.asList(1), index.getImageIds(Collections.singletonList("all"), true, 2, 3));
+        assertTrue(index.getImageIds(Collections.singletonList("all"), true, 1, 3).isEmpty());
+        assertTrue(index.getImageIds(Collections.singletonList("all"), true, 0, 3).isEmpty());
+        assertTrue(index.getImageIds(Collections.singletonList("all"), true, Integer.MIN_VALUE, 3).isEmpty());
+    }
+
+    //This test checks that an edited image is only found under its new tags, and a deleted one not at all
+    @Test
+    public void replaceAndRemove() {
+        assertEquals(new HashSet<>(Arrays.asList("all", "even")), index.replace(4, Collections.singletonList("three")));
+        assertEquals(Arrays.asList(9, 6, 4, 3), index.getImageIds(Collections.singletonList("three"), true, null, 10));
+        assertEquals(Arrays.asList(10, 8, 6, 2), index.getImageIds(Collections.singletonList("even"), true, null, 10));
+
+        assertEquals(new HashSet<>(Arrays.asList("all", "even", "three")), index.remove(6));
+        assertEquals(Arrays.asList(9, 4, 3), index.getImageIds(Collections.singletonList("three"), true, null, 10));
+        assertTrue(index.remove(6).isEmpty());
+    }
+
+    //This test checks that a tag is dropped once its last image is moved to another tag
+    @Test
+    public void replaceDropsEmptyTags() {
+        index.add(11, "single");
+        assertEquals(1, index.getImageCount("single"));
+        index.replace(11, Collections.singletonList("other"));
+        assertEquals(0, index.getImageCount("single"));
+        assertEquals(Arrays.asList(11), index.getImageIds(Collections.singletonList("other"), true, null, 10));
+    }
+}
@@ -0,0 +1,65 @@
+package ImageHoster.repository;
+
+import ImageHoster.model.TagSuggestion;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TagSuggestionIndexTest {
+
+    private TagSuggestionIndex index;
+
+    @Before
+    public void setUp() {
+        index = new TagSuggestionIndex();
+        index.put("dog", 5);
+        index.put("dogs", 1);
+        index.put("doggy", 8);
+        index.put("door", 3);
+        index.put("do", 0);
+        index.put("dog park", 2);
+        index.put("cat", 9);
+    }
+
+    //This test checks that the tags starting with the prefix are returned, most used first
+    @Test
+    public void suggestsMostUsedFirst() {
+        assertEquals(Arrays.asList("doggy", "dog", "door", "dog park", "dogs", "do"), names(index.suggest("do", 10)));
+        assertEquals(Arrays.asList("doggy", "dog"), names(index.suggest("dog", 2)));
+        assertEquals(Arrays.asList("dog park"), names(index.suggest("dog ", 10)));
+        assertEquals(Arrays.asList("cat", "doggy", "dog"), names(index.suggest("", 3)));
+        assertTrue(index.suggest("x", 10).isEmpty());
+    }
+
+    //This test checks that changed counts reorder the suggestions of every prefix of the tag, also when a tag drops out of the top
+    @Test
+    public void countsReorderSuggestions() {
+        index.put("dogs", 20);
+        assertEquals(Arrays.asList("dogs", "doggy"), names(index.suggest("d", 2)));
+
+        index.put("dogs", 0);
+        index.put("doggy", 0);
+        assertEquals(Arrays.asList("dog", "door"), names(index.suggest("d", 2)));
+        assertEquals(Arrays.asList("dog", "dog park", "doggy", "dogs"), names(index.suggest("dog", 10)));
+    }
+
+    //This test checks that adding a known tag again does not reset its count
+    @Test
+    public void putIfAbsentKeepsCount() {
+        index.putIfAbsent("dog");
+        index.putIfAbsent("dolphin");
+        List<TagSuggestion> suggestions = index.suggest("do", 10);
+        assertEquals(5, suggestions.stream().filter(tag -> tag.getName().equals("dog")).findFirst().get().getCount());
+        assertTrue(names(suggestions).contains("dolphin"));
+    }
+
+    private static List<String> names(List<TagSuggestion> suggestions) {
+        return suggestions.stream().map(TagSuggestion::getName).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,88 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Comment;
+import ImageHoster.repository.CommentRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommentBatchWriterTest {
+
+    private CommentRepository commentRepository;
+
+    private CommentBatchWriter writer;
+
+    @Before
+    public void setUp() {
+        commentRepository = Mockito.mock(CommentRepository.class);
+        writer = new CommentBatchWriter();
+        ReflectionTestUtils.setField(writer, "commentRepository", commentRepository);
+        ReflectionTestUtils.setField(writer, "batchSize", 50);
+        ReflectionTestUtils.setField(writer, "flushInterval", 100L);
+        ReflectionTestUtils.setField(writer, "queueCapacity", 1000);
+        ReflectionTestUtils.setField(writer, "shutdownTimeout", 10000L);
+        writer.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        writer.shutdown();
+    }
+
+    //Comments queued before the shutdown are all written, in batches no larger than the batch size
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queuedCommentsAreWrittenInBatchesOnShutdown() throws InterruptedException {
+        for (int i = 0; i < 120; i++) {
+            writer.submit(1, new Comment());
+        }
+        writer.shutdown();
+
+        ArgumentCaptor<List<Comment>> batches = ArgumentCaptor.forClass((Class) List.class);
+        Mockito.verify(commentRepository, Mockito.atLeast(3)).saveComments(batches.capture());
+        int written = 0;
+        for (List<Comment> batch : batches.getAllValues()) {
+            assertTrue(batch.size() <= 50);
+            written += batch.size();
+        }
+        assertEquals(120, written);
+    }
+
+    //A single comment does not wait for the batch to fill up
+    @Test
+    public void commentIsWrittenAfterFlushInterval() {
+        Comment comment = new Comment();
+        writer.submit(7, comment);
+
+        Mockito.verify(commentRepository, Mockito.timeout(2000)).saveComments(Mockito.anyList());
+        assertEquals(Integer.valueOf(7), comment.getImage().getId());
+    }
+
+    //A failing batch is retried comment by comment, so a single bad comment does not lose the others
+    //The future of the comment which still fails completes exceptionally, the other one completes normally
+    @Test
+    public void failedBatchIsRetriedOneByOne() throws InterruptedException {
+        Mockito.doThrow(new IllegalStateException("batch failed"))
+                .doThrow(new IllegalStateException("image deleted"))
+                .doNothing()
+                .when(commentRepository).saveComments(Mockito.anyList());
+        CompletableFuture<Void> first = writer.submit(1, new Comment());
+        CompletableFuture<Void> second = writer.submit(2, new Comment());
+        writer.shutdown();
+
+        Mockito.verify(commentRepository, Mockito.times(3)).saveComments(Mockito.anyList());
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isDone());
+        assertFalse(second.isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,42 @@
+package ImageHoster.service;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DerivativeServiceTest {
+
+    //A square image up to twice the largest width is decoded at full size, a wider one is reduced to about twice the largest width
+    @Test
+    public void subsamplingFollowsTheWidth() {
+        assertEquals(1, DerivativeService.getSubsampling(3000, 3000, 1600));
+        assertEquals(3, DerivativeService.getSubsampling(10000, 6000, 1600));
+    }
+
+    //A tall and narrow image is reduced by its number of pixels, although its width is below the largest width
+    @Test
+    public void subsamplingLimitsThePixelsOfTallImages() {
+        int subsampling = DerivativeService.getSubsampling(1000, 200000, 1600);
+        assertEquals(4, subsampling);
+        assertTrue((1000L / subsampling) * (200000L / subsampling) <= 2L * 3200 * 3200);
+    }
+
+    @Test
+    public void decodedSizeIsReadFromTheHeader() throws Exception {
+        Path file = Files.createTempFile("derivative", ".png");
+        try {
+            ImageIO.write(new BufferedImage(150, 90, BufferedImage.TYPE_INT_RGB), "png", file.toFile());
+            assertEquals(new Dimension(150, 90), DerivativeService.readDecodedSize(file, 1600));
+            assertEquals(new Dimension(50, 30), DerivativeService.readDecodedSize(file, 20));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//These tests upload pictures which are nearly the same as an existing picture against an in-memory database
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class DuplicateDetectionServiceTest {
+
+    @Autowired
+    private DuplicateDetectionService duplicateDetectionService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private UserService userService;
+
+    private User user;
+
+    @Before
+    public void setUp() {
+        user = registerUser();
+    }
+
+    //This test checks that a smaller, brighter and recompressed copy of a picture is flagged, while a different picture is not
+    @Test
+    public void flagsNearDuplicates() throws IOException {
+        BufferedImage picture = picture(1);
+        Image original = uploadImage(encode(picture, "png"));
+        assertNull(original.getDuplicateOf());
+
+        Image copy = uploadImage(encode(brighten(DerivativeService.scaleToWidth(picture, 300), 20), "jpg"));
+        assertEquals(original.getId(), copy.getDuplicateOf());
+        assertTrue(Long.bitCount(original.getPerceptualHash() ^ copy.getPerceptualHash()) <= 4);
+
+        Image other = uploadImage(encode(picture(2), "png"));
+        assertNull(other.getDuplicateOf());
+
+        imageService.deleteImage(copy.getId(), user.getId());
+        imageService.deleteImage(original.getId(), user.getId());
+        assertNull(uploadImage(encode(picture, "png")).getDuplicateOf());
+    }
+
+    //This test checks that a near-duplicate is not stored when near-duplicates are rejected
+    @Test
+    public void rejectsNearDuplicates() throws IOException {
+        BufferedImage picture = picture(3);
+        Image original = uploadImage(encode(picture, "png"));
+        ReflectionTestUtils.setField(duplicateDetectionService, "action", "reject");
+        try {
+            uploadImage(encode(DerivativeService.scaleToWidth(picture, 200), "png"));
+            fail();
+        } catch (DuplicateImageException e) {
+            assertEquals(original.getId(), e.getDuplicateOf());
+        } finally {
+            ReflectionTestUtils.setField(duplicateDetectionService, "action", "flag");
+        }
+    }
+
+    //This test checks that the index built from the stored hashes finds the images uploaded before
+    @Test
+    public void buildReadsTheStoredHashes() throws IOException {
+        BufferedImage picture = picture(4);
+        Image original = uploadImage(encode(picture, "png"));
+
+        duplicateDetectionService.build();
+
+        assertEquals(original.getId(), uploadImage(encode(picture, "jpg")).getDuplicateOf());
+    }
+
+    //This test checks that an image flagged as near-duplicate no longer points to the original once the original is deleted
+    @Test
+    public void deletingTheOriginalClearsTheLink() throws IOException {
+        BufferedImage picture = picture(5);
+        Image original = uploadImage(encode(picture, "png"));
+        Image copy = uploadImage(encode(picture, "jpg"));
+        assertEquals(original.getId(), copy.getDuplicateOf());
+
+        imageService.deleteImage(original.getId(), user.getId());
+
+        assertNull(imageService.getImageByTitle(copy.getId()).getDuplicateOf());
+    }
+
+    //This test stores two nearly identical pictures at the same time, slowly, and checks that the second one is still flagged
+    @Test
+    public void concurrentNearDuplicatesAreFlagged() throws Exception {
+        BufferedImage picture = picture(6);
+        Image first = uploadImage(encode(picture, "png"));
+        Image second = uploadImage(encode(picture, "jpg"));
+        duplicateDetectionService.remove(first);
+        duplicateDetectionService.remove(second);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Runnable slowStore = () -> {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            Future<?> storeFirst = executor.submit(() -> duplicateDetectionService.checkAndStore(first, null, slowStore));
+            Future<?> storeSecond = executor.submit(() -> duplicateDetectionService.checkAndStore(second, null, slowStore));
+            storeFirst.get(10, TimeUnit.SECONDS);
+            storeSecond.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(first.getDuplicateOf() != null ^ second.getDuplicateOf() != null);
+    }
+
+    //This test uploads two nearly identical new pictures at the same time, the one stored second is flagged with the id of the first
+    @Test
+    public void concurrentUploadsOfNearDuplicatesAreFlagged() throws Exception {
+        BufferedImage picture = picture(7);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Image> first = executor.submit(() -> uploadImage(encode(picture, "png")));
+            Future<Image> second = executor.submit(() -> uploadImage(encode(picture, "jpg")));
+            Image firstImage = first.get(10, TimeUnit.SECONDS);
+            Image secondImage = second.get(10, TimeUnit.SECONDS);
+            assertTrue(firstImage.getId().equals(secondImage.getDuplicateOf()) ^ secondImage.getId().equals(firstImage.getDuplicateOf()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    //This test checks that different pictures are stored in parallel, each store waits until the other one has started
+    @Test
+    public void differentPicturesAreStoredInParallel() throws Exception {
+        Image first = uploadImage(encode(picture(8), "png"));
+        Image second = uploadImage(encode(picture(9), "png"));
+        CountDownLatch started = new CountDownLatch(2);
+        Runnable store = () -> {
+            started.countDown();
+            try {
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> storeFirst = executor.submit(() -> duplicateDetectionService.checkAndStore(first, null, store));
+            Future<?> storeSecond = executor.submit(() -> duplicateDetectionService.checkAndStore(second, null, store));
+            storeFirst.get(10, TimeUnit.SECONDS);
+            storeSecond.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    //This test checks that the hash of a new image which could not be stored is removed from the index again
+    @Test(timeout = 10000)
+    public void failedStoreReleasesTheHash() throws IOException {
+        BufferedImage picture = picture(10);
+        Image stored = uploadImage(encode(picture, "png"));
+        duplicateDetectionService.remove(stored);
+        Image failed = new Image();
+        failed.setContentHash(stored.getContentHash());
+        try {
+            duplicateDetectionService.checkAndStore(failed, null, () -> {
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            //The store failed
+        }
+
+        assertNull(uploadImage(encode(picture, "png")).getDuplicateOf());
+    }
+
+    private Image uploadImage(byte[] file) throws IOException {
+        Image image = new Image();
+        image.setTitle("new");
+        image.setDate(new Date());
+        image.setUser(user);
+        image.setContentType("image/png");
+        image.setTags(Collections.emptyList());
+        imageService.uploadImage(image, new ByteArrayInputStream(file));
+        return image;
+    }
+
+    //A picture of a few large soft blobs of light on a gradient, different for every seed
+    private static BufferedImage picture(long seed) {
+        Random random = new Random(seed);
+        int width = 400;
+        int height = 300;
+        double[][] blobs = new double[6][];
+        for (int i = 0; i < blobs.length; i++) {
+            blobs[i] = new double[]{random.nextDouble() * width, random.nextDouble() * height, 40 + random.nextDouble() * 60, random.nextDouble() * 2 - 1};
+        }
+        BufferedImage picture = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double value = 100 + 40.0 * x / width;
+                for (double[] blob : blobs) {
+                    double dx = (x - blob[0]) / blob[2];
+                    double dy = (y - blob[1]) / blob[2];
+                    value += 120 * blob[3] * Math.exp(-(dx * dx + dy * dy));
+                }
+                int gray = Math.max(0, Math.min(255, (int) value));
+                picture.setRGB(x, y, (gray << 16) | (gray / 2 << 8) | (255 - gray));
+            }
+        }
+        return picture;
+    }
+
+    private static BufferedImage brighten(BufferedImage picture, int amount) {
+        BufferedImage brighter = new BufferedImage(picture.getWidth(), picture.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < picture.getHeight(); y++) {
+            for (int x = 0; x < picture.getWidth(); x++) {
+                int rgb = picture.getRGB(x, y);
+                int r = Math.min(255, ((rgb >> 16) & 0xff) + amount);
+                int g = Math.min(255, ((rgb >> 8) & 0xff) + amount);
+                int b = Math.min(255, (rgb & 0xff) + amount);
+                brighter.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return brighter;
+    }
+
+    private static byte[] encode(BufferedImage picture, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(picture, format, out);
+        return out.toByteArray();
+    }
+
+    private User registerUser() {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername("Abhi" + System.nanoTime());
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userService.registerUser(user);
+        return user;
+    }
+}
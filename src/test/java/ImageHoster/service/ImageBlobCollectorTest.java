@@ -0,0 +1,191 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.repository.ImageBlobRepository;
+import ImageHoster.repository.ImageStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//These tests upload identical files and delete their images against an in-memory database
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class ImageBlobCollectorTest {
+
+    @Autowired
+    private ImageBlobCollector imageBlobCollector;
+
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private DuplicateDetectionService duplicateDetectionService;
+
+    @Autowired
+    private UserService userService;
+
+    private User user;
+
+    @Before
+    public void setUp() {
+        user = registerUser();
+        //The files released by a test are collected right away
+        ReflectionTestUtils.setField(imageBlobCollector, "gracePeriod", -60000L);
+    }
+
+    @After
+    public void tearDown() {
+        ReflectionTestUtils.setField(imageBlobCollector, "gracePeriod", 3600000L);
+    }
+
+    //This test checks that identical uploads share one file, which is only deleted after the last image pointing to it
+    @Test
+    public void sharedFileIsDeletedWithTheLastImage() throws IOException {
+        byte[] file = png(1);
+        Image first = uploadImage(file);
+        Image second = uploadImage(file);
+        assertEquals(first.getContentHash(), second.getContentHash());
+        assertEquals(2, imageBlobRepository.getBlob(first.getContentHash()).getRefCount());
+
+        imageService.deleteImage(first.getId(), user.getId());
+        imageBlobCollector.collect();
+        assertTrue(imageStorage.exists(first.getContentHash()));
+        assertEquals(1, imageBlobRepository.getBlob(first.getContentHash()).getRefCount());
+
+        imageService.deleteImage(second.getId(), user.getId());
+        assertTrue(imageBlobCollector.collect() >= 1);
+        assertFalse(imageStorage.exists(first.getContentHash()));
+        assertNull(imageBlobRepository.getBlob(first.getContentHash()));
+    }
+
+    //This test checks that replacing the file of an image moves the count from the previous file to the new one
+    @Test
+    public void editMovesTheReference() throws IOException {
+        Image image = uploadImage(png(2));
+        String previousHash = image.getContentHash();
+
+        try (ByteArrayInputStream in = new ByteArrayInputStream(png(3))) {
+            imageService.updateImage(image, in);
+        }
+        assertEquals(0, imageBlobRepository.getBlob(previousHash).getRefCount());
+        assertEquals(1, imageBlobRepository.getBlob(image.getContentHash()).getRefCount());
+
+        imageBlobCollector.collect();
+        assertFalse(imageStorage.exists(previousHash));
+        assertTrue(imageStorage.exists(image.getContentHash()));
+    }
+
+    //This test checks that the file of a rejected upload is deleted, and that a file touched by a new upload is kept
+    @Test
+    public void rejectedUploadIsCollected() throws IOException {
+        byte[] file = png(4);
+        uploadImage(file);
+        byte[] copy = png(4, 5);
+        ReflectionTestUtils.setField(duplicateDetectionService, "action", "reject");
+        try {
+            uploadImage(copy);
+            fail();
+        } catch (DuplicateImageException e) {
+            //expected
+        } finally {
+            ReflectionTestUtils.setField(duplicateDetectionService, "action", "flag");
+        }
+
+        String hash = sha256(copy);
+        assertEquals(0, imageBlobRepository.getBlob(hash).getRefCount());
+
+        Path path = imageStorage.resolve(hash);
+        assertFalse(imageStorage.deleteIfUnusedSince(hash, Files.getLastModifiedTime(path).toMillis()));
+        assertTrue(Files.exists(path));
+
+        imageBlobCollector.collect();
+        assertFalse(Files.exists(path));
+    }
+
+    private Image uploadImage(byte[] file) throws IOException {
+        Image image = new Image();
+        image.setTitle("new");
+        image.setDate(new Date());
+        image.setUser(user);
+        image.setContentType("image/png");
+        image.setTags(Collections.emptyList());
+        imageService.uploadImage(image, new ByteArrayInputStream(file));
+        return image;
+    }
+
+    //A picture unique to the seed, the marked pixel makes the file differ without changing the picture noticeably
+    private static byte[] png(int seed, int... marks) throws IOException {
+        BufferedImage picture = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        long unique = System.nanoTime();
+        for (int y = 0; y < picture.getHeight(); y++) {
+            for (int x = 0; x < picture.getWidth(); x++) {
+                picture.setRGB(x, y, (x * 4 * seed & 0xff) << 16 | (y * 5) << 8 | ((x + y) * seed & 0xff));
+            }
+        }
+        picture.setRGB(0, 0, (int) (unique & 0xffffff));
+        for (int mark : marks) {
+            picture.setRGB(mark, 1, 0xffffff);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(picture, "png", out);
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private User registerUser() {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername("Abhi" + System.nanoTime());
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userService.registerUser(user);
+        return user;
+    }
+}
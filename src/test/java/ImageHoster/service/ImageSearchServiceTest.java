@@ -0,0 +1,156 @@
+package ImageHoster.service;
+
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+//These tests run the full-text search against an in-memory database and an index in the target directory
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class ImageSearchServiceTest {
+
+    @Autowired
+    private ImageSearchService imageSearchService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private TagService tagService;
+
+    @Autowired
+    private UserService userService;
+
+    private User user;
+
+    //A word which no other image contains
+    private String word;
+
+    @Before
+    public void setUp() {
+        user = registerUser();
+        word = "w" + Long.toString(System.nanoTime(), 36);
+    }
+
+    //This test checks that a word is found in the title, the tags and the description, in that order of relevance
+    @Test
+    public void matchesAreRankedByField() {
+        Image inDescription = uploadImage("sunset", "taken with " + word, "beach");
+        Image inTitle = uploadImage("my " + word, null, "beach");
+        Image inTags = uploadImage("sunrise", null, word);
+
+        assertEquals(ids(inTitle, inTags, inDescription), ids(imageSearchService.search(word, null, null)));
+    }
+
+    //This test checks that the beginning of a word finds the image, and that every word of the search has to match
+    @Test
+    public void prefixesMatchAndAllWordsAreRequired() {
+        Image image = uploadImage("Golden " + word, "at the lake", "dog");
+
+        assertEquals(ids(image), ids(imageSearchService.search(word.substring(0, word.length() - 2), null, null)));
+        assertEquals(ids(image), ids(imageSearchService.search("LAKE " + word, null, null)));
+        assertTrue(imageSearchService.search("mountain " + word, null, null).getItems().isEmpty());
+    }
+
+    //This test checks that edited and deleted images are updated in the index right away
+    @Test
+    public void editAndDeleteUpdateTheIndex() {
+        Image image = uploadImage(word, null, "cat");
+
+        image.setTitle("renamed");
+        image.setTags(tagService.resolveTags(Collections.singletonList(word + "tag")));
+        imageService.updateImage(image);
+        assertEquals(ids(image), ids(imageSearchService.search(word + "tag", null, null)));
+        assertEquals("renamed", imageSearchService.search(word, null, null).getItems().get(0).getTitle());
+
+        imageService.deleteImage(image.getId(), user.getId());
+        assertTrue(imageSearchService.search(word, null, null).getItems().isEmpty());
+    }
+
+    //This test checks the links between the pages of the results
+    @Test
+    public void resultsArePaged() {
+        for (int i = 0; i < 3; i++) {
+            uploadImage(word + " " + i, null, "paged");
+        }
+
+        CursorPage<ImageSummary> first = imageSearchService.search(word, null, 2);
+        assertEquals(2, first.getItems().size());
+        assertNull(first.getPrevious());
+
+        CursorPage<ImageSummary> second = imageSearchService.search(word, Integer.valueOf(first.getNext()), 2);
+        assertEquals(1, second.getItems().size());
+        assertNull(second.getNext());
+        assertEquals("0", second.getPrevious());
+
+        assertTrue(imageSearchService.search(word, Integer.MAX_VALUE, 2).getItems().isEmpty());
+    }
+
+    //This test checks that the images are found again after the index has been rebuilt from the database
+    @Test
+    public void rebuildRestoresTheIndex() throws IOException {
+        Image image = uploadImage("lighthouse", word, "sea");
+
+        imageSearchService.rebuild();
+
+        assertEquals(ids(image), ids(imageSearchService.search(word + " sea", null, null)));
+        assertEquals(user.getUsername(), imageSearchService.search(word, null, null).getItems().get(0).getUsername());
+    }
+
+    private Image uploadImage(String title, String description, String tag) {
+        Image image = new Image();
+        image.setTitle(title);
+        image.setDescription(description);
+        image.setDate(new Date());
+        image.setUser(user);
+        image.setTags(tagService.resolveTags(Collections.singletonList(tag)));
+        imageService.uploadImage(image);
+        return image;
+    }
+
+    private static List<Integer> ids(Image... images) {
+        List<Integer> ids = new ArrayList<>();
+        for (Image image : images) {
+            ids.add(image.getId());
+        }
+        return ids;
+    }
+
+    private static List<Integer> ids(CursorPage<ImageSummary> page) {
+        return page.getItems().stream().map(ImageSummary::getId).collect(Collectors.toList());
+    }
+
+    private User registerUser() {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername("Abhi" + System.nanoTime());
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userService.registerUser(user);
+        return user;
+    }
+}
@@ -0,0 +1,174 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.repository.ImageStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//These tests stream uploads far larger than the memory an upload may take to the image storage of an in-memory database
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class ImageUploadTest {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    private UserService userService;
+
+    private User user;
+
+    @Before
+    public void setUp() {
+        user = registerUser();
+    }
+
+    @After
+    public void tearDown() {
+        ReflectionTestUtils.setField(imageService, "maxUploadSize", 20 * MEGABYTE);
+    }
+
+    //This test uploads a file of 64 MB, which is generated while it is read, and checks that the upload allocated only a small part of that on the heap
+    @Test
+    public void largeUploadTakesConstantMemory() throws IOException {
+        long size = 64 * MEGABYTE;
+        ReflectionTestUtils.setField(imageService, "maxUploadSize", size);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        Image image = uploadImage(new GeneratedStream(PNG_SIGNATURE, size));
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertTrue("Allocated " + allocated + " bytes", allocated < 8 * MEGABYTE);
+        assertEquals(Long.valueOf(size), image.getSize());
+        assertEquals("image/png", image.getContentType());
+        assertEquals(size, Files.size(imageStorage.resolve(image.getContentHash())));
+    }
+
+    //This test checks that a too large upload is refused as soon as the limit is passed, without reading the rest of it
+    @Test
+    public void tooLargeUploadIsRefusedEarly() throws IOException {
+        ReflectionTestUtils.setField(imageService, "maxUploadSize", MEGABYTE);
+        GeneratedStream file = new GeneratedStream(PNG_SIGNATURE, 64 * MEGABYTE);
+        Image image = new Image();
+        try {
+            uploadImage(image, file);
+            fail();
+        } catch (InvalidImageException e) {
+            assertTrue(file.position < 2 * MEGABYTE);
+            assertNull(image.getId());
+        }
+    }
+
+    //This test checks that a file not starting like an image is refused, whatever type the browser claims
+    @Test
+    public void fileWithoutImageSignatureIsRefused() throws IOException {
+        Image image = new Image();
+        image.setContentType("image/png");
+        try {
+            uploadImage(image, new GeneratedStream("<html>".getBytes(), MEGABYTE));
+            fail();
+        } catch (InvalidImageException e) {
+            assertNull(image.getId());
+        }
+        assertEquals("image/jpeg", uploadImage(new GeneratedStream(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}, 1024)).getContentType());
+    }
+
+    private Image uploadImage(InputStream file) throws IOException {
+        Image image = new Image();
+        uploadImage(image, file);
+        return image;
+    }
+
+    private void uploadImage(Image image, InputStream file) throws IOException {
+        image.setTitle("large");
+        image.setDate(new Date());
+        image.setUser(user);
+        image.setTags(Collections.emptyList());
+        imageService.uploadImage(image, file);
+    }
+
+    //A stream of the given first bytes followed by pseudo-random bytes up to the given size, none of which is held in memory
+    private static class GeneratedStream extends InputStream {
+
+        private final byte[] start;
+
+        private final long size;
+
+        private long position;
+
+        private final long seed = System.nanoTime();
+
+        GeneratedStream(byte[] start, long size) {
+            this.start = start;
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            if (position >= size) {
+                return -1;
+            }
+            long i = position++;
+            if (i < start.length) {
+                return start[(int) i] & 0xff;
+            }
+            return (int) ((i * 0x9E3779B97F4A7C15L + seed) >>> 56);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= size) {
+                return -1;
+            }
+            int count = (int) Math.min(length, size - position);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) read();
+            }
+            return count;
+        }
+    }
+
+    private User registerUser() {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername("Abhi" + System.nanoTime());
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userService.registerUser(user);
+        return user;
+    }
+}
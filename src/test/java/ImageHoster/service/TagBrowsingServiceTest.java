@@ -0,0 +1,161 @@
+package ImageHoster.service;
+
+import ImageHoster.model.CursorPage;
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.Tag;
+import ImageHoster.model.TagSuggestion;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.repository.StatementCounter;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+//These tests browse the images by their tags against an in-memory database
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class TagBrowsingServiceTest {
+
+    @Autowired
+    private TagBrowsingService tagBrowsingService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private TagService tagService;
+
+    @Autowired
+    private TagSuggestionService tagSuggestionService;
+
+    @Autowired
+    private UserService userService;
+
+    private User user;
+
+    private String suffix;
+
+    @Before
+    public void setUp() {
+        user = registerUser();
+        suffix = Long.toString(System.nanoTime());
+    }
+
+    //This test checks the images of several tags, page by page, and that only the page shown is read from the database
+    @Test
+    public void browsesTagsPageByPage() {
+        Image dogOnBeach = uploadImage("dog", "beach");
+        Image dog = uploadImage("dog");
+        Image beach = uploadImage("beach");
+
+        StatementCounter.reset();
+        CursorPage<ImageSummary> first = tagBrowsingService.getImagePage(Arrays.asList("dog" + suffix, "beach" + suffix), false, null, 2);
+        assertEquals(Arrays.asList(beach.getId(), dog.getId()), ids(first));
+        assertEquals(1, StatementCounter.getStatements().size());
+
+        CursorPage<ImageSummary> second = tagBrowsingService.getImagePage(Arrays.asList("dog" + suffix, "beach" + suffix), false, first.getNext(), 2);
+        assertEquals(Collections.singletonList(dogOnBeach.getId()), ids(second));
+        assertNull(second.getNext());
+
+        assertEquals(Collections.singletonList(dogOnBeach.getId()),
+                ids(tagBrowsingService.getImagePage(Arrays.asList(" Dog" + suffix, "BEACH" + suffix), true, null, null)));
+    }
+
+    //This test checks that edited and deleted images are moved in the index right away
+    @Test
+    public void editAndDeleteUpdateTheIndex() {
+        Image image = uploadImage("cat");
+
+        image.setTags(tagService.resolveTags(Collections.singletonList("kitten" + suffix)));
+        imageService.updateImage(image);
+        assertTrue(tagBrowsingService.getImagePage(Collections.singletonList("cat" + suffix), true, null, null).getItems().isEmpty());
+        assertEquals(Collections.singletonList(image.getId()), ids(tagBrowsingService.getImagePage(Collections.singletonList("kitten" + suffix), true, null, null)));
+
+        imageService.deleteImage(image.getId(), user.getId());
+        assertTrue(tagBrowsingService.getImagePage(Collections.singletonList("kitten" + suffix), true, null, null).getItems().isEmpty());
+    }
+
+    //This test checks that created tags are suggested right away and that their counts follow the uploads and deletes
+    @Test
+    public void suggestionsFollowTheImages() {
+        tagService.resolveTags(Collections.singletonList("zebra" + suffix));
+        assertEquals(0, tagSuggestionService.suggest("Zebra" + suffix, null).get(0).getCount());
+
+        Image image = uploadImage("zebra");
+        uploadImage("zebra", "stripes");
+        List<TagSuggestion> suggestions = tagSuggestionService.suggest("zebra" + suffix, null);
+        assertEquals(1, suggestions.size());
+        assertEquals("zebra" + suffix, suggestions.get(0).getName());
+        assertEquals(2, suggestions.get(0).getCount());
+
+        imageService.deleteImage(image.getId(), user.getId());
+        assertEquals(1, tagSuggestionService.suggest("zebra" + suffix, null).get(0).getCount());
+    }
+
+    //This test checks that the index built from the database holds the images uploaded before
+    @Test
+    public void buildReadsTheDatabase() {
+        Image image = uploadImage("tree", "park");
+
+        tagBrowsingService.build();
+
+        assertEquals(Collections.singletonList(image.getId()),
+                ids(tagBrowsingService.getImagePage(Arrays.asList("tree" + suffix, "park" + suffix), true, null, null)));
+    }
+
+    //This test checks that a tag stored with upper-case letters, as tags were before their names were normalized, is found by its normalized name
+    @Test
+    public void tagsAreIndexedByTheirNormalizedName() {
+        Image image = uploadImage("tree");
+        Tag legacyTag = new Tag(" Old  Oak" + suffix);
+        image.setTags(Collections.singletonList(legacyTag));
+
+        tagBrowsingService.index(image);
+
+        assertEquals(Collections.singletonList(image.getId()),
+                ids(tagBrowsingService.getImagePage(Collections.singletonList("old oak" + suffix), true, null, null)));
+    }
+
+    private Image uploadImage(String... tags) {
+        Image image = new Image();
+        image.setTitle("new");
+        image.setDate(new Date());
+        image.setUser(user);
+        image.setTags(tagService.resolveTags(Arrays.stream(tags).map(tag -> tag + suffix).collect(Collectors.toList())));
+        imageService.uploadImage(image);
+        return image;
+    }
+
+    private static List<Integer> ids(CursorPage<ImageSummary> page) {
+        return page.getItems().stream().map(ImageSummary::getId).collect(Collectors.toList());
+    }
+
+    private User registerUser() {
+        UserProfile userProfile = new UserProfile();
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        User user = new User();
+        user.setUsername("Abhi" + System.nanoTime());
+        user.setPassword("password1@");
+        user.setProfile(userProfile);
+        userService.registerUser(user);
+        return user;
+    }
+}
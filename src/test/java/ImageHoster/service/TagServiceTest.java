@@ -0,0 +1,121 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Tag;
+import ImageHoster.repository.TagRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//These tests run resolveTags() against an in-memory database
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class TagServiceTest {
+
+    @Autowired
+    private TagService tagService;
+
+    @Autowired
+    private TagRepository tagRepository;
+
+    @Autowired
+    private TagSuggestionService tagSuggestionService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceUnit(unitName = "imageHoster")
+    private EntityManagerFactory emf;
+
+    //This test checks that the names are normalized, repeated names are dropped and existing tags are reused
+    @Test
+    public void resolveTagsCreatesMissingAndReusesExisting() {
+        String suffix = Long.toString(System.nanoTime());
+        Tag existing = tagService.createTag(new Tag("dog" + suffix));
+
+        List<Tag> tags = tagService.resolveTags(Arrays.asList(" Dog" + suffix + " ", "big   cat" + suffix, "", "DOG" + suffix));
+
+        assertEquals(2, tags.size());
+        assertEquals(existing.getId(), tags.get(0).getId());
+        assertEquals("big cat" + suffix, tags.get(1).getName());
+        assertEquals(tags.get(1).getId(), tagService.resolveTags(Collections.singletonList("Big Cat" + suffix)).get(0).getId());
+    }
+
+    //This test checks that the tags created by a rolled back transaction are not suggested, and the ones of a committed transaction are
+    @Test
+    public void createdTagsAreSuggestedAfterCommit() {
+        String suffix = Long.toString(System.nanoTime());
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        transaction.execute(status -> {
+            tagService.resolveTags(Collections.singletonList("zebra" + suffix));
+            assertTrue(tagSuggestionService.suggest("zebra" + suffix, null).isEmpty());
+            status.setRollbackOnly();
+            return null;
+        });
+        assertTrue(tagSuggestionService.suggest("zebra" + suffix, null).isEmpty());
+
+        transaction.execute(status -> tagService.resolveTags(Collections.singletonList("Zebra" + suffix)));
+        assertEquals("zebra" + suffix, tagSuggestionService.suggest("zebra" + suffix, null).get(0).getName());
+    }
+
+    //This test checks that the number of statements does not depend on the number of tags
+    @Test
+    public void resolveTagsUsesConstantNumberOfStatements() {
+        Statistics statistics = emf.unwrap(SessionFactory.class).getStatistics();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            names.add("tag" + i + "-" + System.nanoTime());
+        }
+
+        long statements = statistics.getPrepareStatementCount();
+        List<Tag> tags = tagService.resolveTags(names);
+
+        assertEquals(20, tags.size());
+        assertTrue(statistics.getPrepareStatementCount() - statements <= 3);
+    }
+
+    //This test checks that two uploads adding the same new tags at the same time end up with the same tags and no duplicates
+    @Test
+    public void concurrentResolveTagsCreatesEveryTagOnce() throws Exception {
+        List<String> names = Arrays.asList("fox" + System.nanoTime(), "owl" + System.nanoTime());
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        Callable<List<Tag>> resolve = () -> {
+            barrier.await();
+            return tagService.resolveTags(names);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Tag>> first = executor.submit(resolve);
+            Future<List<Tag>> second = executor.submit(resolve);
+            List<Tag> firstTags = first.get(30, TimeUnit.SECONDS);
+            List<Tag> secondTags = second.get(30, TimeUnit.SECONDS);
+
+            for (int i = 0; i < names.size(); i++) {
+                assertEquals(firstTags.get(i).getId(), secondTags.get(i).getId());
+            }
+            assertEquals(2, tagRepository.findTags(names).size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}